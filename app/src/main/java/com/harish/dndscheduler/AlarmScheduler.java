@@ -0,0 +1,39 @@
+package com.harish.dndscheduler;
+
+import android.app.PendingIntent;
+
+/**
+ * Common interface over the different AlarmManager APIs used to arm DND transitions.
+ *
+ * Which implementation is used for a given alarm is decided by
+ * {@link AlarmSchedulers#forTransition(android.content.Context, Tolerance)}.
+ */
+public interface AlarmScheduler {
+
+    /**
+     * How much delay a transition can tolerate when it fires
+     */
+    enum Tolerance {
+        CRITICAL,     // Class start - silence must be on time, even in Doze
+        TOLERANT,     // Class end - a few minutes late is fine
+        HOUSEKEEPING  // Periodic checks - can be batched with other wakeups
+    }
+
+    /**
+     * Arm a one-shot alarm at the given wall clock time
+     */
+    void schedule(long triggerAtMillis, PendingIntent operation);
+
+    void cancel(PendingIntent operation);
+
+    /**
+     * How long after the trigger time the system may deliver the alarm: 0 for exact
+     * alarms, Long.MAX_VALUE when there is no bound
+     */
+    long getWindowMillis();
+
+    /**
+     * Short name used in logs
+     */
+    String getName();
+}
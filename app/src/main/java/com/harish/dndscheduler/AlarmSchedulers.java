@@ -0,0 +1,259 @@
+package com.harish.dndscheduler;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Picks the AlarmManager strategy for each DND transition.
+ *
+ * - Class starts (CRITICAL) use setAlarmClock, which is never deferred by Doze
+ * - Class ends (TOLERANT) use setWindow so the system can batch them
+ * - Housekeeping (HOUSEKEEPING) uses inexact alarms; the repeating periodic check is
+ *   armed by DNDManager itself, since every strategy here is one-shot
+ *
+ * The choice also depends on whether exact alarms are allowed (Android 12+)
+ * and on battery saver, which defers plain windowed alarms heavily.
+ *
+ * Without exact alarm access, Android 12+ stretches any setWindow window shorter than
+ * ten minutes to ten minutes, so a class start can then be up to ten minutes late.
+ * MainActivity asks for the permission when it is missing.
+ */
+public final class AlarmSchedulers {
+
+    private static final String TAG = "AlarmSchedulers";
+
+    // Window lengths for windowed alarms. The fallback for class starts is the shortest
+    // window Android 12+ grants an app without exact alarm access; asking for less
+    // would only be stretched to this anyway.
+    static final long CRITICAL_FALLBACK_WINDOW_MS = 10 * 60 * 1000;  // 10 minutes
+    static final long TOLERANT_WINDOW_MS = 5 * 60 * 1000;            // 5 minutes
+
+    // Lets tests swap in a fake scheduler
+    private static volatile AlarmScheduler override;
+
+    private AlarmSchedulers() {
+    }
+
+    /**
+     * Get the scheduler to use for a transition with the given tolerance
+     */
+    public static AlarmScheduler forTransition(Context context, AlarmScheduler.Tolerance tolerance) {
+        AlarmScheduler fake = override;
+        if (fake != null) {
+            return fake;
+        }
+
+        Context appContext = context.getApplicationContext();
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        boolean canExact = canScheduleExactAlarms(alarmManager);
+        boolean powerSave = isPowerSaveMode(appContext);
+
+        AlarmScheduler scheduler = choose(appContext, alarmManager, tolerance, canExact, powerSave);
+        if (tolerance == AlarmScheduler.Tolerance.CRITICAL && !canExact) {
+            Log.w(TAG, "Exact alarms not allowed - class start may be up to "
+                    + (CRITICAL_FALLBACK_WINDOW_MS / 60000) + " minutes late");
+        }
+        Log.d(TAG, "Using " + scheduler.getName() + " for " + tolerance +
+                " (exact allowed: " + canExact + ", power save: " + powerSave + ")");
+        return scheduler;
+    }
+
+    /**
+     * The strategy for a tolerance, given the device state
+     */
+    static AlarmScheduler choose(Context appContext, AlarmManager alarmManager,
+                                 AlarmScheduler.Tolerance tolerance, boolean canExact, boolean powerSave) {
+        switch (tolerance) {
+            case CRITICAL:
+                if (canExact) {
+                    return new AlarmClockScheduler(appContext, alarmManager);
+                }
+                // Without exact alarm access the best we can do is the shortest window allowed
+                return new WindowedScheduler(alarmManager, CRITICAL_FALLBACK_WINDOW_MS);
+            case TOLERANT:
+                if (powerSave && canExact) {
+                    // Battery saver defers windowed alarms for a long time, so go exact
+                    return new ExactIdleScheduler(alarmManager);
+                }
+                return new WindowedScheduler(alarmManager, TOLERANT_WINDOW_MS);
+            case HOUSEKEEPING:
+            default:
+                return new InexactScheduler(alarmManager);
+        }
+    }
+
+    /**
+     * Tolerance of the DND action carried by an alarm intent
+     */
+    public static AlarmScheduler.Tolerance toleranceForAction(String action) {
+        if (action == null) {
+            return AlarmScheduler.Tolerance.HOUSEKEEPING;
+        }
+        if (action.startsWith("TURN_ON_DND")) {
+            return AlarmScheduler.Tolerance.CRITICAL;
+        }
+        if (action.startsWith("TURN_OFF_DND")) {
+            return AlarmScheduler.Tolerance.TOLERANT;
+        }
+        return AlarmScheduler.Tolerance.HOUSEKEEPING;
+    }
+
+    /**
+     * Replace the real schedulers with a fake one (pass null to restore)
+     */
+    public static void setOverrideForTesting(AlarmScheduler scheduler) {
+        override = scheduler;
+    }
+
+    static boolean canScheduleExactAlarms(AlarmManager alarmManager) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return alarmManager.canScheduleExactAlarms();
+        }
+        return true; // Always available on older versions
+    }
+
+    private static boolean isPowerSaveMode(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && powerManager.isPowerSaveMode();
+    }
+
+    /**
+     * setAlarmClock - exempt from Doze, shows the alarm icon in the status bar
+     */
+    static class AlarmClockScheduler implements AlarmScheduler {
+        private final Context context;
+        private final AlarmManager alarmManager;
+
+        AlarmClockScheduler(Context context, AlarmManager alarmManager) {
+            this.context = context;
+            this.alarmManager = alarmManager;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, PendingIntent operation) {
+            // Tapping the status bar alarm opens the app
+            PendingIntent showIntent = PendingIntent.getActivity(
+                    context,
+                    0,
+                    new Intent(context, MainActivity.class),
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+            alarmManager.setAlarmClock(new AlarmManager.AlarmClockInfo(triggerAtMillis, showIntent), operation);
+        }
+
+        @Override
+        public void cancel(PendingIntent operation) {
+            alarmManager.cancel(operation);
+        }
+
+        @Override
+        public long getWindowMillis() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "setAlarmClock";
+        }
+    }
+
+    /**
+     * setExactAndAllowWhileIdle - exact, but rate limited while in Doze
+     */
+    static class ExactIdleScheduler implements AlarmScheduler {
+        private final AlarmManager alarmManager;
+
+        ExactIdleScheduler(AlarmManager alarmManager) {
+            this.alarmManager = alarmManager;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, PendingIntent operation) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAtMillis, operation);
+        }
+
+        @Override
+        public void cancel(PendingIntent operation) {
+            alarmManager.cancel(operation);
+        }
+
+        @Override
+        public long getWindowMillis() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "setExactAndAllowWhileIdle";
+        }
+    }
+
+    /**
+     * setWindow - fires anywhere inside [trigger, trigger + window]
+     */
+    static class WindowedScheduler implements AlarmScheduler {
+        private final AlarmManager alarmManager;
+        private final long windowMillis;
+
+        WindowedScheduler(AlarmManager alarmManager, long windowMillis) {
+            this.alarmManager = alarmManager;
+            this.windowMillis = windowMillis;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, PendingIntent operation) {
+            alarmManager.setWindow(AlarmManager.RTC_WAKEUP, triggerAtMillis, windowMillis, operation);
+        }
+
+        @Override
+        public void cancel(PendingIntent operation) {
+            alarmManager.cancel(operation);
+        }
+
+        @Override
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        @Override
+        public String getName() {
+            return "setWindow(" + (windowMillis / 1000) + "s)";
+        }
+    }
+
+    /**
+     * Inexact alarms - batched freely with other apps' wakeups
+     */
+    static class InexactScheduler implements AlarmScheduler {
+        private final AlarmManager alarmManager;
+
+        InexactScheduler(AlarmManager alarmManager) {
+            this.alarmManager = alarmManager;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, PendingIntent operation) {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, triggerAtMillis, operation);
+        }
+
+        @Override
+        public void cancel(PendingIntent operation) {
+            alarmManager.cancel(operation);
+        }
+
+        @Override
+        public long getWindowMillis() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String getName() {
+            return "inexact";
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.harish.dndscheduler;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Decodes captcha images without allocating a new full-size bitmap per refresh.
+ *
+ * - The body is read with a size cap and its bounds are checked before decoding.
+ * - Decode size is bounded to the target view with inSampleSize.
+ * - RGB_565: the captcha has no alpha and needs no more colour, so half the memory.
+ * - Bitmaps are recycled through inBitmap. Whoever shows a captcha hands its bitmap
+ *   back with {@link #release} once the view no longer displays it; the next decode
+ *   reuses it. A bitmap that was never released is never decoded into, so one still
+ *   on screen can not be overwritten.
+ *
+ * Decoding happens on the network thread only; release may come from any thread.
+ */
+final class CaptchaDecoder {
+
+    private static final String TAG = "CaptchaDecoder";
+
+    // A captcha is a few KB; anything far bigger is not one
+    private static final long MAX_BYTES = 256 * 1024;
+    private static final int MAX_DIMENSION = 1024;
+
+    // Released by its view and not handed out since
+    private Bitmap spare;
+
+    /**
+     * @param targetWidth  width of the view it will be shown in, or 0 if unknown
+     * @param targetHeight height of the view it will be shown in, or 0 if unknown
+     */
+    synchronized Bitmap decode(BufferedSource source, int targetWidth, int targetHeight) throws IOException {
+        if (source.request(MAX_BYTES + 1)) {
+            throw new IOException("Captcha image larger than " + MAX_BYTES + " bytes");
+        }
+        byte[] data = source.readByteArray();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0
+                || options.outWidth > MAX_DIMENSION || options.outHeight > MAX_DIMENSION) {
+            throw new IOException("Unexpected captcha size " + options.outWidth + "x" + options.outHeight);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true; // required for inBitmap
+
+        int width = ceilDiv(options.outWidth, options.inSampleSize);
+        int height = ceilDiv(options.outHeight, options.inSampleSize);
+        boolean reused = canReuse(spare, width, height);
+        if (reused) {
+            options.inBitmap = spare;
+            // Handed out again below (or dropped if decoding into it fails)
+            spare = null;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; decode into a fresh one
+            Log.w(TAG, "Could not reuse pooled bitmap: " + e.getMessage());
+            options.inBitmap = null;
+            reused = false;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Failed to decode captcha bitmap");
+        }
+
+        Log.d(TAG, "Decoded " + options.outWidth + "x" + options.outHeight + " captcha at 1/"
+                + options.inSampleSize + (reused ? " into pooled bitmap" : " into new bitmap"));
+        return bitmap;
+    }
+
+    /**
+     * Give back a decoded bitmap its view has stopped showing, e.g. because a new captcha
+     * replaced it or the dialog closed. It must not be drawn anywhere after this.
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap != null && canReuse(bitmap, 1, 1)) {
+            spare = bitmap;
+        }
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height) {
+        return candidate != null && !candidate.isRecycled() && candidate.isMutable()
+                && candidate.getConfig() == Bitmap.Config.RGB_565
+                && candidate.getAllocationByteCount() >= width * height * 2;
+    }
+
+    /**
+     * Largest power of two that keeps both sides at least the target size
+     */
+    private static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -1,17 +1,60 @@
 package com.harish.dndscheduler;
 
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * One class in the weekly timetable, stored as wall-clock times.
+ *
+ * Epoch millis are derived on demand for the next occurrence, so slots never go
+ * stale across week boundaries, DST or timezone changes.
+ */
 public class ClassTimeSlot {
-    private long startMillis;
-    private long endMillis;
-    private String subject;
+    private final DayOfWeek day;
+    private final LocalTime startTime;
+    private final LocalTime endTime;
+    private final String subject;
 
-    public ClassTimeSlot(long startMillis, long endMillis, String subject) {
-        this.startMillis = startMillis;
-        this.endMillis = endMillis;
+    public ClassTimeSlot(DayOfWeek day, LocalTime startTime, LocalTime endTime, String subject) {
+        this.day = day;
+        this.startTime = startTime;
+        this.endTime = endTime;
         this.subject = subject;
     }
 
-    public long getStartMillis() { return startMillis; }
-    public long getEndMillis() { return endMillis; }
+    public DayOfWeek getDay() { return day; }
+    public LocalTime getStartTime() { return startTime; }
+    public LocalTime getEndTime() { return endTime; }
     public String getSubject() { return subject; }
+
+    public int getCalendarDayOfWeek() { return ScheduleClock.toCalendarDay(day); }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ClassTimeSlot)) return false;
+        ClassTimeSlot other = (ClassTimeSlot) o;
+        return day == other.day && startTime.equals(other.startTime)
+                && endTime.equals(other.endTime) && Objects.equals(subject, other.subject);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(day, startTime, endTime, subject);
+    }
+
+    public long getStartMillis() {
+        return nextStart().toInstant().toEpochMilli();
+    }
+
+    public long getEndMillis() {
+        // End on the same date as the start it belongs to
+        return nextStart().with(endTime).toInstant().toEpochMilli();
+    }
+
+    private ZonedDateTime nextStart() {
+        return ScheduleClock.nextOccurrence(day, startTime, System.currentTimeMillis());
+    }
 }
@@ -0,0 +1,223 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Weekly class intervals compiled from the timetable, with Saturday compensation applied.
+ *
+ * This is persisted to a small binary file every time the schedule is built so that
+ * boot and time change events can restore DND without touching the timetable HTML.
+ * Intervals are wall-clock times; instants are only computed, in the current zone,
+ * when a transition is needed, so the file stays valid across timezone changes.
+ */
+public class CompiledSchedule {
+
+    private static final String TAG = "CompiledSchedule";
+    private static final String FILE_NAME = "compiled_schedule.bin";
+    private static final int MAGIC = 0x444E4453; // "DNDS"
+    private static final int VERSION = 2; // 2: ISO day of week
+
+    /**
+     * One class on one day of the week
+     */
+    public static class Interval {
+        public final DayOfWeek day;
+        public final LocalTime start;
+        public final LocalTime end;
+
+        public Interval(DayOfWeek day, LocalTime start, LocalTime end) {
+            this.day = day;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * A single DND ON or OFF event at a concrete time
+     */
+    public static class Transition {
+        public final DayOfWeek day;
+        public final LocalTime time;
+        public final boolean isStart;
+        public final long triggerAtMillis;
+        public final boolean isExtra; // one-off session from the exception calendar
+
+        Transition(DayOfWeek day, LocalTime time, boolean isStart, long triggerAtMillis) {
+            this(day, time, isStart, triggerAtMillis, false);
+        }
+
+        Transition(DayOfWeek day, LocalTime time, boolean isStart, long triggerAtMillis, boolean isExtra) {
+            this.day = day;
+            this.time = time;
+            this.isStart = isStart;
+            this.triggerAtMillis = triggerAtMillis;
+            this.isExtra = isExtra;
+        }
+
+        public int getCalendarDayOfWeek() { return ScheduleClock.toCalendarDay(day); }
+        public int getHour() { return time.getHour(); }
+        public int getMinute() { return time.getMinute(); }
+        public String getAction() { return isStart ? "TURN_ON_DND" : "TURN_OFF_DND"; }
+    }
+
+    private final List<Interval> intervals;
+
+    private CompiledSchedule(List<Interval> intervals) {
+        this.intervals = Collections.unmodifiableList(intervals);
+    }
+
+    public List<Interval> getIntervals() {
+        return intervals;
+    }
+
+    public boolean isEmpty() {
+        return intervals.isEmpty();
+    }
+
+    /**
+     * Build the weekly intervals from parsed slots, copying the followed day onto Saturday
+     */
+    public static CompiledSchedule compile(List<ClassTimeSlot> slots, String saturdayFollows) {
+        List<Interval> result = new ArrayList<>();
+        DayOfWeek saturdayTargetDay = ScheduleClock.fromDayName(saturdayFollows);
+
+        for (ClassTimeSlot slot : slots) {
+            result.add(new Interval(slot.getDay(), slot.getStartTime(), slot.getEndTime()));
+            if (slot.getDay() == saturdayTargetDay) {
+                result.add(new Interval(DayOfWeek.SATURDAY, slot.getStartTime(), slot.getEndTime()));
+            }
+        }
+        return new CompiledSchedule(result);
+    }
+
+    /**
+     * Whether the given wall-clock time falls inside any class
+     */
+    public boolean isInClass(ZonedDateTime now) {
+        DayOfWeek today = now.getDayOfWeek();
+        LocalTime time = now.toLocalTime();
+        for (Interval interval : intervals) {
+            if (interval.day == today && !time.isBefore(interval.start) && time.isBefore(interval.end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The first ON or OFF transition strictly after the given time, or null if there are none
+     */
+    public Transition nextTransition(long nowMillis) {
+        Instant now = Instant.ofEpochMilli(nowMillis);
+        ZoneId zone = ZoneId.systemDefault();
+        Transition next = null;
+        for (Interval interval : intervals) {
+            Transition start = occurrenceAfter(interval.day, interval.start, true, now, zone);
+            Transition end = occurrenceAfter(interval.day, interval.end, false, now, zone);
+            if (next == null || start.triggerAtMillis < next.triggerAtMillis) next = start;
+            if (end.triggerAtMillis < next.triggerAtMillis) next = end;
+        }
+        return next;
+    }
+
+    /**
+     * All ON and OFF transitions in (fromMillis, toMillis], sorted by time
+     */
+    public List<Transition> transitionsBetween(long fromMillis, long toMillis) {
+        ZoneId zone = ZoneId.systemDefault();
+        List<Transition> result = new ArrayList<>();
+        for (Interval interval : intervals) {
+            addOccurrences(result, interval.day, interval.start, true, fromMillis, toMillis, zone);
+            addOccurrences(result, interval.day, interval.end, false, fromMillis, toMillis, zone);
+        }
+        Collections.sort(result, (a, b) -> Long.compare(a.triggerAtMillis, b.triggerAtMillis));
+        return result;
+    }
+
+    private static void addOccurrences(List<Transition> result, DayOfWeek day, LocalTime time, boolean isStart,
+                                       long fromMillis, long toMillis, ZoneId zone) {
+        Transition occurrence = occurrenceAfter(day, time, isStart, Instant.ofEpochMilli(fromMillis), zone);
+        while (occurrence.triggerAtMillis <= toMillis) {
+            result.add(occurrence);
+            occurrence = occurrenceAfter(day, time, isStart, Instant.ofEpochMilli(occurrence.triggerAtMillis), zone);
+        }
+    }
+
+    private static Transition occurrenceAfter(DayOfWeek day, LocalTime time, boolean isStart, Instant after, ZoneId zone) {
+        long triggerAt = ScheduleClock.nextOccurrence(day, time, after, zone).toInstant().toEpochMilli();
+        return new Transition(day, time, isStart, triggerAt);
+    }
+
+    public void save(Context context) {
+        if (!StorageMigrator.canWrite(FILE_NAME)) {
+            return;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(intervals.size());
+            for (Interval interval : intervals) {
+                out.writeByte(interval.day.getValue());
+                out.writeShort(ScheduleClock.minuteOfDay(interval.start));
+                out.writeShort(ScheduleClock.minuteOfDay(interval.end));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write compiled schedule", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace compiled schedule file");
+            tmp.delete();
+            return;
+        }
+        Log.d(TAG, "Saved compiled schedule with " + intervals.size() + " intervals");
+    }
+
+    /**
+     * Load the last compiled schedule, or null if none was saved or it can't be read
+     */
+    public static CompiledSchedule load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Compiled schedule has unknown format, ignoring");
+                return null;
+            }
+            int count = in.readInt();
+            List<Interval> intervals = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                intervals.add(new Interval(DayOfWeek.of(in.readByte()),
+                        ScheduleClock.fromMinuteOfDay(in.readShort()),
+                        ScheduleClock.fromMinuteOfDay(in.readShort())));
+            }
+            return new CompiledSchedule(intervals);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read compiled schedule", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.harish.dndscheduler;
+
+import android.app.Application;
+
+/**
+ * Process entry point: brings older installs' storage up to date before anything
+ * else needs it, and owns the portal client shared by every screen.
+ */
+public class DNDApplication extends Application {
+
+    private PortalClient portalClient;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StorageMigrator.migrateInBackground(this);
+    }
+
+    /**
+     * The app-wide portal client, created on first use
+     */
+    public synchronized PortalClient getPortalClient() {
+        if (portalClient == null) {
+            portalClient = new PortalClient(this);
+        }
+        return portalClient;
+    }
+}
@@ -5,16 +5,16 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.os.Build;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.text.DateFormat;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 
 public class DNDManager {
@@ -24,7 +24,7 @@ public class DNDManager {
     private final AlarmManager alarmManager;
     private final NotificationManager notificationManager;
     private final AudioManager audioManager;
-    private final SharedPreferences prefs;
+    private final DndSettings settings;
     private static final String TAG = "DNDManager";
     private boolean isRequestingDndAccess = false; 
 
@@ -33,84 +33,244 @@ public class DNDManager {
         this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
         this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        this.prefs = context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
+        this.settings = DndSettings.getInstance(context);
     }
 
     public static synchronized DNDManager getInstance(Context context) {
         if (instance == null) {
             instance = new DNDManager(context);
+            instance.recoverInterruptedTransition();
         }
         return instance;
     }
 
+    /**
+     * Finish or roll back a transition whose process died between journaling its
+     * intent and committing the state.
+     *
+     * ON: if the mode change reached the system, keep it and save the journaled
+     * original; otherwise nothing happened and the entry is just dropped.
+     * OFF: the user's mode is re-applied only if the entry is from today and the app
+     * still owns the current mode; anything else was set by the user since and is kept.
+     */
+    private void recoverInterruptedTransition() {
+        TransitionJournal.Entry entry = settings.getPendingJournalEntry();
+        if (entry == null) {
+            return;
+        }
+        Log.w(TAG, "Recovering interrupted transition: " + entry);
+
+        long startedAt = SystemClock.elapsedRealtime();
+        try (DndSettings.Transaction tx = settings.beginTransaction("recovery").recovered(entry.seq)) {
+            switch (entry.kind) {
+                case TransitionJournal.KIND_RINGER_ON:
+                    if (audioManager.getRingerMode() == entry.targetValue) {
+                        tx.storeOriginalRingerMode(entry.originalValue, entry.epochDay).setModeOn(true);
+                    }
+                    break;
+                case TransitionJournal.KIND_DND_ON:
+                    if (notificationManager.getCurrentInterruptionFilter() == entry.targetValue) {
+                        tx.storeOriginalDndFilter(entry.originalValue, entry.epochDay).setModeOn(true);
+                    }
+                    break;
+                case TransitionJournal.KIND_RINGER_OFF:
+                    if (ownsModeSince(entry) && audioManager.getRingerMode() == expectedRingerMode()) {
+                        audioManager.setRingerMode(entry.targetValue);
+                    } else {
+                        Log.d(TAG, "Ringer no longer ours, leaving mode " + audioManager.getRingerMode());
+                    }
+                    tx.setModeOn(false);
+                    break;
+                case TransitionJournal.KIND_DND_OFF:
+                    if (hasDndAccess()) {
+                        if (ownsModeSince(entry)
+                                && notificationManager.getCurrentInterruptionFilter() == NotificationManager.INTERRUPTION_FILTER_NONE) {
+                            notificationManager.setInterruptionFilter(entry.targetValue);
+                        } else {
+                            Log.d(TAG, "DND no longer ours, leaving filter " + notificationManager.getCurrentInterruptionFilter());
+                        }
+                        tx.setModeOn(false);
+                    }
+                    break;
+            }
+            boolean committed = tx.commit();
+            TransitionLog.record(context, TransitionLog.SOURCE_RECOVERY,
+                    entry.isOn() ? TransitionLog.ACTION_MODE_ON : TransitionLog.ACTION_MODE_OFF,
+                    TransitionLog.modeOf(getSilentModeType()), committed,
+                    SystemClock.elapsedRealtime() - startedAt, entry.seq);
+        }
+    }
+
+    /**
+     * Whether an interrupted entry is from today and nothing has taken the mode over since
+     */
+    private boolean ownsModeSince(TransitionJournal.Entry entry) {
+        return entry.epochDay == RuntimeStateStore.today() && wasDndSetByApp() && !isUserOverrideActive();
+    }
+
+    /**
+     * The ringer mode the app sets during class in silent and vibrate modes
+     */
+    private int expectedRingerMode() {
+        return "vibrate".equals(getSilentModeType()) ? AudioManager.RINGER_MODE_VIBRATE : AudioManager.RINGER_MODE_SILENT;
+    }
+
     public void scheduleDndForClasses() {
-        List<ClassTimeSlot> slots = TimetableStore.getClassTimeSlots(context);
+        ScheduleSnapshot snapshot = ScheduleSnapshot.get(context);
+        List<ClassTimeSlot> slots = snapshot.getSlots();
 
-        if (slots == null || slots.isEmpty()) {
+        if (slots.isEmpty()) {
             // No timetable data available
             return;
         }
 
-        // First, cancel all existing alarms to avoid duplicates
-        cancelAllAlarms();
+        // First, cancel all existing alarms to avoid duplicates, including the horizon
+        // armed for the previous schedule
+        cancelAllAlarms(slots);
+        HorizonScheduler.cancelAll(context, CompiledSchedule.load(context));
 
-        // Get Saturday configuration from MainActivity
-        String saturdayFollows = getSaturdayFollowsDay();
-        Log.d(TAG, "Saturday follows: " + saturdayFollows);
+        Log.d(TAG, "Saturday follows: " + snapshot.getSaturdayFollows());
 
-        for (ClassTimeSlot slot : slots) {
-            Calendar start = Calendar.getInstance();
-            start.setTimeInMillis(slot.getStartMillis());
+        // Persist the compiled intervals so boot/time change can restore without parsing HTML
+        snapshot.getCompiledSchedule().save(context);
 
-            Calendar end = Calendar.getInstance();
-            end.setTimeInMillis(slot.getEndMillis());
+        // Arm the next week of transitions in one batch, topped up daily by HorizonWorker
+        HorizonScheduler.replan(context);
+        HorizonWorker.schedulePeriodic(context);
+        TimetableSyncWorker.schedulePeriodic(context);
 
-            int dayOfWeek = start.get(Calendar.DAY_OF_WEEK);
+        // Schedule a periodic check alarm every 10 minutes
+        schedulePeriodicCheck();
 
-            // Schedule for the original day
-            scheduleSlotForDay(slot, start, end, dayOfWeek);
+        settings.edit().putBoolean("dnd_scheduling_enabled", true).apply();
+        // A fresh schedule starts without any manual override
+        if (isUserOverrideActive()) {
+            settings.beginTransaction("schedule_reset").clearUserOverride().commit();
+        }
+        ScheduleBundle.saveForBackup(context);
+    }
 
-            // Handle Saturday compensation
-            if (!saturdayFollows.equals("None (Holiday)")) {
-                int saturdayTargetDay = getDayOfWeekFromString(saturdayFollows);
-                if (dayOfWeek == saturdayTargetDay) {
-                    // This day's schedule should also apply to Saturday
-                    scheduleSlotForDay(slot, start, end, Calendar.SATURDAY);
-                    Log.d(TAG, "Scheduled Saturday to follow " + saturdayFollows + " for " + slot.getSubject());
-                }
-            }
+    /**
+     * Fast restore after boot.
+     *
+     * Reads the compiled schedule instead of parsing the timetable HTML, applies the
+     * current in-class state and arms only the next transition. The rest of the horizon
+     * is planned right after by HorizonWorker and the full reparse is deferred to
+     * ScheduleRecompileWorker.
+     *
+     * @return false if there is no compiled schedule and a full reschedule is needed
+     */
+    public boolean restoreFromCompiledSchedule() {
+        long startTime = System.currentTimeMillis();
+        CompiledSchedule schedule = CompiledSchedule.load(context);
+        if (schedule == null || schedule.isEmpty()) {
+            Log.d(TAG, "No compiled schedule available for fast restore");
+            return false;
         }
 
-        // Schedule a periodic check alarm every 10 minutes
+        if (isUserOverrideActive()) {
+            Log.d(TAG, "User override active - leaving current mode alone");
+        } else {
+            applyClassState(isInClassNow(schedule));
+        }
+
+        // Reboots clear all alarms, so plan from scratch
+        HorizonScheduler.reset(context);
+        HorizonScheduler.armNext(context, schedule);
+        HorizonWorker.requestReplan(context);
+        HorizonWorker.schedulePeriodic(context);
         schedulePeriodicCheck();
 
-        prefs.edit().putBoolean("dnd_scheduling_enabled", true).apply();
+        ScheduleRecompileWorker.enqueue(context);
+
+        Log.d(TAG, "Fast restore completed in " + (System.currentTimeMillis() - startTime) + "ms");
+        return true;
     }
 
     /**
-     * Schedule alarms for a specific slot and day
+     * The wall clock or timezone changed.
+     *
+     * The compiled schedule holds local times, so it is still valid - only the instants
+     * move. Re-planning the horizon re-arms each transition under the same request code,
+     * which replaces the old alarm in place without a reparse. A jump across a week
+     * boundary moves occurrences into the other week's codes, so both are cleared first.
+     *
+     * @return false if there is no compiled schedule and a full reschedule is needed
      */
-    private void scheduleSlotForDay(ClassTimeSlot slot, Calendar start, Calendar end, int dayOfWeek) {
-        // Generate unique request codes to avoid collisions
-        int startRequestCode = generateRequestCode(dayOfWeek, start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE), true);
-        int endRequestCode = generateRequestCode(dayOfWeek, end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE), false);
+    public boolean onClockChanged() {
+        CompiledSchedule schedule = CompiledSchedule.load(context);
+        if (schedule == null || schedule.isEmpty()) {
+            return false;
+        }
 
-        // Schedule exact alarms for each class
-        scheduleExactRecurringAlarm(dayOfWeek, start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE),
-                "TURN_ON_DND", startRequestCode);
+        if (!isUserOverrideActive()) {
+            applyClassState(isInClassNow(schedule));
+        }
+        HorizonScheduler.cancelAll(context, schedule);
+        HorizonScheduler.replan(context);
+        Log.d(TAG, "Horizon re-planned for " + java.time.ZoneId.systemDefault());
+        return true;
+    }
 
-        scheduleExactRecurringAlarm(dayOfWeek, end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE),
-                "TURN_OFF_DND", endRequestCode);
+    /**
+     * In-class state from the compiled schedule, with today's exceptions applied
+     */
+    private boolean isInClassNow(CompiledSchedule schedule) {
+        ZonedDateTime now = ScheduleClock.now();
+        Boolean excepted = ExceptionCalendar.getInstance(context).inClassOverride(now.toLocalDate(), now.toLocalTime());
+        return excepted != null ? excepted : schedule.isInClass(now);
+    }
 
-        Log.d(TAG, "Scheduled exact alarms for day " + dayOfWeek + ": ON at " +
-                start.get(Calendar.HOUR_OF_DAY) + ":" + start.get(Calendar.MINUTE));
+    /**
+     * An exception was removed. A removed extra session is no longer planned, so its
+     * armed alarms would still fire - cancel them before re-planning.
+     */
+    public void onExceptionRemoved(ExceptionCalendar.Entry removed) {
+        if (removed.kind == ExceptionCalendar.KIND_EXTRA) {
+            HorizonScheduler.cancelExtra(context, removed);
+        }
+        onExceptionsChanged();
+    }
+
+    /**
+     * Exceptions were added or removed: re-plan the armed horizon and fix the current state
+     */
+    public void onExceptionsChanged() {
+        if (!isDndSchedulingEnabled()) {
+            return;
+        }
+        HorizonScheduler.replan(context);
+        forceImmediateDndStatusCheck();
+    }
+
+    /**
+     * A newer timetable was recorded in the background: persist it and move the armed
+     * alarms over by diff instead of cancelling and re-arming everything
+     *
+     * @param previous the compiled schedule before the change
+     */
+    public void onTimetableChanged(CompiledSchedule previous) {
+        CompiledSchedule updated = ScheduleSnapshot.get(context).getCompiledSchedule();
+        updated.save(context);
+        ScheduleBundle.saveForBackup(context);
+        if (!isDndSchedulingEnabled()) {
+            return;
+        }
+        if (previous == null || previous.isEmpty()) {
+            scheduleDndForClasses();
+            forceImmediateDndStatusCheck();
+            return;
+        }
+        if (HorizonScheduler.applyDiff(context, previous, updated) != 0) {
+            forceImmediateDndStatusCheck();
+        }
     }
 
     /**
      * Get which day Saturday should follow from preferences
      */
     private String getSaturdayFollowsDay() {
-        return MainActivity.getSaturdayFollowsDayStatic(context);
+        return settings.getSaturdayFollows();
     }
 
     /**
@@ -127,68 +287,15 @@ public class DNDManager {
         }
     }
 
-    private int generateRequestCode(int dayOfWeek, int hour, int minute, boolean isStart) {
+    /**
+     * Request code used by older versions, which armed one alarm per weekly slot. Only used
+     * to cancel those alarms; the horizon arms under HorizonScheduler.requestCode.
+     */
+    private static int generateRequestCode(int dayOfWeek, int hour, int minute, boolean isStart) {
         // Generate unique request code: dayOfWeek(1) + hour(2) + minute(2) + type(1)
         return dayOfWeek * 10000 + hour * 100 + minute * 10 + (isStart ? 1 : 0);
     }
 
-    private void scheduleExactRecurringAlarm(int dayOfWeek, int hour, int minute, String action, int requestCode) {
-        Intent intent = new Intent(context, DNDReceiver.class);
-        intent.setAction(action);
-        intent.putExtra("day_of_week", dayOfWeek);
-        intent.putExtra("hour", hour);
-        intent.putExtra("minute", minute);
-        intent.putExtra("request_code", requestCode);
-
-        PendingIntent pi = PendingIntent.getBroadcast(
-                context,
-                requestCode,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        // Schedule for the next occurrence of this day/time
-        Calendar nextOccurrence = getNextOccurrence(dayOfWeek, hour, minute);
-
-        // Use setExactAndAllowWhileIdle for better reliability
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP,
-                    nextOccurrence.getTimeInMillis(),
-                    pi
-            );
-        } else {
-            alarmManager.setExact(
-                    AlarmManager.RTC_WAKEUP,
-                    nextOccurrence.getTimeInMillis(),
-                    pi
-            );
-        }
-
-        Log.d(TAG, "Scheduled exact alarm for " + action + " at " +
-                nextOccurrence.getTime().toString() + " (RequestCode: " + requestCode + ")");
-    }
-
-    private Calendar getNextOccurrence(int dayOfWeek, int hour, int minute) {
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.HOUR_OF_DAY, hour);
-        cal.set(Calendar.MINUTE, minute);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-
-        // Calculate days until next occurrence
-        int currentDay = cal.get(Calendar.DAY_OF_WEEK);
-        int daysUntilTarget = (dayOfWeek - currentDay + 7) % 7;
-
-        // If it's today but time has passed, schedule for next week
-        if (daysUntilTarget == 0 && cal.getTimeInMillis() <= System.currentTimeMillis()) {
-            daysUntilTarget = 7;
-        }
-
-        cal.add(Calendar.DAY_OF_YEAR, daysUntilTarget);
-        return cal;
-    }
-
     public void schedulePeriodicCheck() {
         Intent intent = new Intent(context, DNDReceiver.class);
         intent.setAction("PERIODIC_CHECK");
@@ -203,9 +310,10 @@ public class DNDManager {
         Calendar cal = Calendar.getInstance();
         cal.add(Calendar.MINUTE, 1); // Start in 1 minute
 
-        // Use setRepeating for periodic check (less critical timing)
-        alarmManager.setRepeating(
-                AlarmManager.RTC_WAKEUP,
+        // Periodic check is housekeeping and never wakes the device: it runs when something
+        // else does. Transitions are armed as wakeup alarms, so excepted days get no wakeups.
+        alarmManager.setInexactRepeating(
+                AlarmManager.RTC,
                 cal.getTimeInMillis(),
                 10 * 60 * 1000, // 10 minutes instead of 15 for better responsiveness
                 pi
@@ -214,81 +322,45 @@ public class DNDManager {
         Log.d(TAG, "Scheduled periodic DND check every 10 minutes");
     }
 
-    public void checkAndSetCurrentDndStatus(List<ClassTimeSlot> classSlots) {
-        if (classSlots == null) {
-            classSlots = TimetableStore.getClassTimeSlots(context);
-        }
-
-        if (classSlots == null || classSlots.isEmpty()) {
+    /**
+     * Bring DND in line with the published schedule snapshot: its compiled schedule
+     * (Saturday already mapped onto the followed day) with today's exceptions applied
+     */
+    public void checkAndSetCurrentDndStatus() {
+        ScheduleSnapshot snapshot = ScheduleSnapshot.get(context);
+        if (snapshot.isEmpty()) {
             Log.w(TAG, "No class slots available for DND check");
             return;
         }
 
-        Calendar now = Calendar.getInstance();
-        int today = now.get(Calendar.DAY_OF_WEEK);
-        int nowMinutes = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
-
-        boolean inClass = false;
-        String currentClassName = "";
-
-        // Handle Saturday compensation
-        String saturdayFollows = getSaturdayFollowsDay();
-        boolean isSaturday = (today == Calendar.SATURDAY);
-        int targetDay = -1;
-        if (isSaturday && !saturdayFollows.equals("None (Holiday)")) {
-            targetDay = getDayOfWeekFromString(saturdayFollows);
-            Log.d(TAG, "Saturday following " + saturdayFollows + " schedule (target day: " + targetDay + ")");
-        } else if (isSaturday) {
-            Log.d(TAG, "Saturday is a holiday - checking if DND should be turned off");
-            // Saturday is a holiday, but we still need to check if DND is currently on and turn it off
-            boolean currentDndStatus = isDndCurrentlyOn();
-            if (currentDndStatus && wasDndSetByApp()) {
-                setDndOff();
-                Log.d(TAG, "Saturday is holiday and DND was on - turning DND OFF");
-            }
-            return; // No classes scheduled for Saturday holiday
+        // The user changed DND/ringer by hand - leave it alone until the next transition
+        if (isUserOverrideActive()) {
+            Log.d(TAG, "User override active - skipping DND status check until next transition");
+            return;
         }
 
-        for (ClassTimeSlot slot : classSlots) {
-            Calendar start = Calendar.getInstance();
-            start.setTimeInMillis(slot.getStartMillis());
-
-            Calendar end = Calendar.getInstance();
-            end.setTimeInMillis(slot.getEndMillis());
-
-            int slotDay = start.get(Calendar.DAY_OF_WEEK);
-
-            // Check if this slot applies to today
-            boolean slotApplies = false;
-            if (isSaturday && !saturdayFollows.equals("None (Holiday)")) {
-                // On Saturday, check if this slot is from the day Saturday is following
-                slotApplies = (slotDay == targetDay);
-            } else {
-                // Normal day, check if slot matches today
-                slotApplies = (slotDay == today);
-            }
-
-            if (!slotApplies) continue;
-
-            int startMin = start.get(Calendar.HOUR_OF_DAY) * 60 + start.get(Calendar.MINUTE);
-            int endMin = end.get(Calendar.HOUR_OF_DAY) * 60 + end.get(Calendar.MINUTE);
-
-            if (nowMinutes >= startMin && nowMinutes < endMin) {
-                inClass = true;
-                currentClassName = slot.getSubject();
-                Log.d(TAG, "Currently in class: " + currentClassName + " (" + startMin + "-" + endMin + ", now: " + nowMinutes + ")");
-                break;
-            }
-        }
+        // Holidays, cancelled classes and extra sessions come before the weekly timetable
+        applyClassState(isInClassNow(snapshot.getCompiledSchedule()));
+    }
 
+    /**
+     * Turn DND on or off to match whether we are currently in class
+     */
+    private void applyClassState(boolean inClass) {
         boolean currentDndStatus = isDndCurrentlyOn();
         Log.d(TAG, "DND Status Check - InClass: " + inClass + ", CurrentDND: " + currentDndStatus);
 
         if (inClass && !currentDndStatus) {
-            setDndOn();
+            long startedAt = SystemClock.elapsedRealtime();
+            boolean success = setDndOn();
+            TransitionLog.record(context, TransitionLog.SOURCE_CHECK, TransitionLog.ACTION_MODE_ON,
+                    TransitionLog.modeOf(getSilentModeType()), success, SystemClock.elapsedRealtime() - startedAt, 0);
             Log.d(TAG, "In class: Turning DND ON immediately");
         } else if (!inClass && currentDndStatus && wasDndSetByApp()) {
-            setDndOff();
+            long startedAt = SystemClock.elapsedRealtime();
+            boolean success = setDndOff();
+            TransitionLog.record(context, TransitionLog.SOURCE_CHECK, TransitionLog.ACTION_MODE_OFF,
+                    TransitionLog.modeOf(getSilentModeType()), success, SystemClock.elapsedRealtime() - startedAt, 0);
             Log.d(TAG, "Not in class: Turning DND OFF immediately");
         } else {
             Log.d(TAG, "No DND change needed - InClass: " + inClass + ", CurrentDND: " + currentDndStatus + ", SetByApp: " + wasDndSetByApp());
@@ -297,20 +369,63 @@ public class DNDManager {
 
     private boolean wasDndSetByApp() {
         // Check if DND was set by this app (not manually by user)
-        return prefs.getBoolean("dnd_set_by_app", false);
+        return settings.isDndSetByApp();
     }
 
-    public void rescheduleAlarmAfterTrigger(int requestCode, String action) {
-        // Extract day, hour, minute from request code
-        int type = requestCode % 10;
-        int minute = (requestCode / 10) % 100;
-        int hour = (requestCode / 1000) % 100;
-        int dayOfWeek = requestCode / 10000;
+    /**
+     * Called by DndChangeReceiver whenever the system interruption filter changes
+     */
+    public void onInterruptionFilterChanged() {
+        if (!isDndSchedulingEnabled() || !"dnd".equals(getSilentModeType()) || !wasDndSetByApp()) {
+            return; // We don't own DND right now, nothing to track
+        }
+
+        int filter = notificationManager.getCurrentInterruptionFilter();
+        if (filter != NotificationManager.INTERRUPTION_FILTER_NONE) {
+            markUserOverride("interruption filter changed to " + filter);
+        }
+    }
+
+    /**
+     * Called by DndChangeReceiver whenever the ringer mode changes
+     */
+    public void onRingerModeChanged() {
+        String modeType = getSilentModeType();
+        boolean usesRinger = "vibrate".equals(modeType) || "silent".equals(modeType);
+        if (!isDndSchedulingEnabled() || !usesRinger || !wasDndSetByApp()) {
+            return; // We don't own the ringer right now, nothing to track
+        }
+
+        int ringerMode = audioManager.getRingerMode();
+        if (ringerMode != expectedRingerMode()) {
+            markUserOverride("ringer mode changed to " + ringerMode);
+        }
+    }
+
+    /**
+     * The user took over - drop ownership and stop enforcing until the next transition
+     */
+    private void markUserOverride(String reason) {
+        settings.beginTransaction("user_override").markUserOverride().commit();
+        TransitionLog.record(context, TransitionLog.SOURCE_USER, TransitionLog.ACTION_OVERRIDE,
+                TransitionLog.modeOf(getSilentModeType()), true, 0, 0);
+        Log.d(TAG, "User override detected (" + reason + ") - suspended until next transition");
+    }
 
-        Log.d(TAG, "Rescheduling alarm - Day: " + dayOfWeek + ", Hour: " + hour + ", Minute: " + minute);
+    public boolean isUserOverrideActive() {
+        return settings.isUserOverrideActive();
+    }
 
-        // Reschedule for next week
-        scheduleExactRecurringAlarm(dayOfWeek, hour, minute, action, requestCode);
+    /**
+     * A scheduled transition ends any manual override. Checks and backup alarms never
+     * get this far while an override is active, so reaching a transition means a
+     * primary alarm fired.
+     */
+    private void endUserOverride(DndSettings.Transaction tx) {
+        if (isUserOverrideActive()) {
+            tx.clearUserOverride();
+            Log.d(TAG, "User override cleared at transition");
+        }
     }
 
     public void cancelDndSchedules() {
@@ -318,6 +433,7 @@ public class DNDManager {
         
         // First, try the comprehensive approach
         cancelAllAlarms();
+        HorizonScheduler.cancelAll(context, ScheduleSnapshot.get(context).getCompiledSchedule());
         
         // Nuclear option: try to cancel with different intent patterns
         cancelAlarmsWithDifferentPatterns();
@@ -326,7 +442,14 @@ public class DNDManager {
             setDndOff();
             Log.d(TAG, "DND was set by app, turning it OFF");
         }
-        prefs.edit().putBoolean("dnd_scheduling_enabled", false).apply();
+        settings.edit().putBoolean("dnd_scheduling_enabled", false).apply();
+        if (isUserOverrideActive()) {
+            settings.beginTransaction("schedule_cancel").clearUserOverride().commit();
+        }
+        HorizonWorker.cancelPeriodic(context);
+        TimetableSyncWorker.cancelPeriodic(context);
+        HorizonScheduler.reset(context);
+        ScheduleBundle.saveForBackup(context);
         Log.d(TAG, "Set dnd_scheduling_enabled to false");
         Log.d(TAG, "Cancelled all DND alarms");
         Log.d(TAG, "=== Finished cancelling all DND schedules ===");
@@ -338,17 +461,15 @@ public class DNDManager {
     private void cancelAlarmsWithDifferentPatterns() {
         Log.d(TAG, "Using nuclear cancellation approach...");
         
-        List<ClassTimeSlot> slots = TimetableStore.getClassTimeSlots(context);
+        List<ClassTimeSlot> slots = ScheduleSnapshot.get(context).getSlots();
         if (slots != null) {
             for (ClassTimeSlot slot : slots) {
-                Calendar start = Calendar.getInstance();
-                start.setTimeInMillis(slot.getStartMillis());
-                Calendar end = Calendar.getInstance();
-                end.setTimeInMillis(slot.getEndMillis());
-                int dayOfWeek = start.get(Calendar.DAY_OF_WEEK);
+                LocalTime start = slot.getStartTime();
+                LocalTime end = slot.getEndTime();
+                int dayOfWeek = slot.getCalendarDayOfWeek();
                 
-                int startRequestCode = generateRequestCode(dayOfWeek, start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE), true);
-                int endRequestCode = generateRequestCode(dayOfWeek, end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE), false);
+                int startRequestCode = generateRequestCode(dayOfWeek, start.getHour(), start.getMinute(), true);
+                int endRequestCode = generateRequestCode(dayOfWeek, end.getHour(), end.getMinute(), false);
                 
                 // Try cancelling with minimal intent (old pattern)
                 cancelAlarmMinimal(startRequestCode, "TURN_ON_DND");
@@ -373,23 +494,21 @@ public class DNDManager {
     }
 
     private void cancelAllAlarms() {
-        List<ClassTimeSlot> slots = TimetableStore.getClassTimeSlots(context);
+        cancelAllAlarms(ScheduleSnapshot.get(context).getSlots());
+    }
 
+    private void cancelAllAlarms(List<ClassTimeSlot> slots) {
         if (slots != null) {
             String saturdayFollows = getSaturdayFollowsDay();
             
             for (ClassTimeSlot slot : slots) {
-                Calendar start = Calendar.getInstance();
-                start.setTimeInMillis(slot.getStartMillis());
-
-                Calendar end = Calendar.getInstance();
-                end.setTimeInMillis(slot.getEndMillis());
-
-                int dayOfWeek = start.get(Calendar.DAY_OF_WEEK);
+                LocalTime start = slot.getStartTime();
+                LocalTime end = slot.getEndTime();
+                int dayOfWeek = slot.getCalendarDayOfWeek();
                 
                 // Cancel alarms for the original day
-                int startRequestCode = generateRequestCode(dayOfWeek, start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE), true);
-                int endRequestCode = generateRequestCode(dayOfWeek, end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE), false);
+                int startRequestCode = generateRequestCode(dayOfWeek, start.getHour(), start.getMinute(), true);
+                int endRequestCode = generateRequestCode(dayOfWeek, end.getHour(), end.getMinute(), false);
 
                 cancelAlarm(startRequestCode, "TURN_ON_DND");
                 cancelAlarm(endRequestCode, "TURN_OFF_DND");
@@ -403,8 +522,8 @@ public class DNDManager {
                     int saturdayTargetDay = getDayOfWeekFromString(saturdayFollows);
                     if (dayOfWeek == saturdayTargetDay) {
                         // Cancel Saturday alarms for this slot
-                        int satStartRequestCode = generateRequestCode(Calendar.SATURDAY, start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE), true);
-                        int satEndRequestCode = generateRequestCode(Calendar.SATURDAY, end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE), false);
+                        int satStartRequestCode = generateRequestCode(Calendar.SATURDAY, start.getHour(), start.getMinute(), true);
+                        int satEndRequestCode = generateRequestCode(Calendar.SATURDAY, end.getHour(), end.getMinute(), false);
                         
                         cancelAlarm(satStartRequestCode, "TURN_ON_DND");
                         cancelAlarm(satEndRequestCode, "TURN_OFF_DND");
@@ -431,24 +550,20 @@ public class DNDManager {
      * This is used when Saturday setting changes to ensure clean slate
      */
     public void cancelAllSaturdayAlarms() {
-        List<ClassTimeSlot> slots = TimetableStore.getClassTimeSlots(context);
+        List<ClassTimeSlot> slots = ScheduleSnapshot.get(context).getSlots();
         if (slots == null) return;
 
         Log.d(TAG, "Cancelling all possible Saturday alarms...");
 
         // Cancel Saturday alarms for all possible time slots
         for (ClassTimeSlot slot : slots) {
-            Calendar start = Calendar.getInstance();
-            start.setTimeInMillis(slot.getStartMillis());
-
-            Calendar end = Calendar.getInstance();
-            end.setTimeInMillis(slot.getEndMillis());
-
+            LocalTime start = slot.getStartTime();
+            LocalTime end = slot.getEndTime();
             // Generate Saturday alarm request codes for this time slot
             int satStartRequestCode = generateRequestCode(Calendar.SATURDAY, 
-                start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE), true);
+                start.getHour(), start.getMinute(), true);
             int satEndRequestCode = generateRequestCode(Calendar.SATURDAY, 
-                end.get(Calendar.HOUR_OF_DAY), end.get(Calendar.MINUTE), false);
+                end.getHour(), end.getMinute(), false);
             
             cancelAlarm(satStartRequestCode, "TURN_ON_DND");
             cancelAlarm(satEndRequestCode, "TURN_OFF_DND");
@@ -464,13 +579,7 @@ public class DNDManager {
     public void forceImmediateDndStatusCheck() {
         Log.d(TAG, "Forcing immediate DND status check...");
         
-        // Get all slots and check current status
-        List<ClassTimeSlot> slots = TimetableStore.getClassTimeSlots(context);
-        if (slots != null && !slots.isEmpty()) {
-            checkAndSetCurrentDndStatus(slots);
-        } else {
-            Log.w(TAG, "No slots available for immediate DND check");
-        }
+        checkAndSetCurrentDndStatus();
     }
 
     private void cancelAlarm(int requestCode, String action) {
@@ -508,13 +617,20 @@ public class DNDManager {
         }
         
         String silentModeType = getSilentModeType();
-        
-        if ("vibrate".equals(silentModeType)) {
-            return setVibrateMode();
-        } else if ("silent".equals(silentModeType)) {
-            return setSilentMode();
-        } else {
-            return setDndMode();
+
+        // Everything this transition changes is persisted in a single write
+        try (DndSettings.Transaction tx = settings.beginTransaction("silent_mode_on")) {
+            endUserOverride(tx);
+            boolean result;
+            if ("vibrate".equals(silentModeType)) {
+                result = setVibrateMode(tx);
+            } else if ("silent".equals(silentModeType)) {
+                result = setSilentMode(tx);
+            } else {
+                result = setDndMode(tx);
+            }
+            tx.commit();
+            return result;
         }
     }
 
@@ -523,101 +639,120 @@ public class DNDManager {
             Log.d(TAG, "setSilentModeOff() called but scheduling is disabled. Ignoring.");
             return false;
         }
-        
-        String silentModeType = getSilentModeType();
-        
-        if ("vibrate".equals(silentModeType) || "silent".equals(silentModeType)) {
-            return restoreNormalMode();
-        } else {
-            return setDndOff();
+
+        try (DndSettings.Transaction tx = settings.beginTransaction("silent_mode_off")) {
+            endUserOverride(tx);
+
+            if (!wasDndSetByApp()) {
+                // User changed the mode by hand (or it was already restored) - don't undo that
+                Log.d(TAG, "setSilentModeOff() called but current mode was not set by app. Nothing to restore.");
+                tx.commit();
+                return true;
+            }
+
+            String silentModeType = getSilentModeType();
+
+            boolean result;
+            if ("vibrate".equals(silentModeType) || "silent".equals(silentModeType)) {
+                result = restoreNormalMode(tx);
+            } else {
+                result = setDndOff(tx);
+            }
+            tx.commit();
+            return result;
         }
     }
 
-    private boolean setVibrateMode() {
-        // Store current ringer mode to restore later (only once per day)
-        storeOriginalModeIfNeeded();
+    private boolean setVibrateMode(DndSettings.Transaction tx) {
+        // Store current ringer mode to restore later, journaled before the change
+        int originalRingerMode = storeOriginalModeIfNeeded(tx);
+        if (!tx.journal(TransitionJournal.KIND_RINGER_ON, originalRingerMode, AudioManager.RINGER_MODE_VIBRATE)) {
+            return false;
+        }
         
         // Set to vibrate mode
         audioManager.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
-        prefs.edit().putBoolean("dnd_currently_on", true).apply();
-        prefs.edit().putBoolean("dnd_set_by_app", true).apply();
+        tx.setModeOn(true);
         Log.d(TAG, "Vibrate mode turned ON");
         return true;
     }
 
-    private boolean setSilentMode() {
-        // Store current ringer mode to restore later (only once per day)
-        storeOriginalModeIfNeeded();
+    private boolean setSilentMode(DndSettings.Transaction tx) {
+        // Store current ringer mode to restore later, journaled before the change
+        int originalRingerMode = storeOriginalModeIfNeeded(tx);
+        if (!tx.journal(TransitionJournal.KIND_RINGER_ON, originalRingerMode, AudioManager.RINGER_MODE_SILENT)) {
+            return false;
+        }
         
         // Set to silent mode
         audioManager.setRingerMode(AudioManager.RINGER_MODE_SILENT);
-        prefs.edit().putBoolean("dnd_currently_on", true).apply();
-        prefs.edit().putBoolean("dnd_set_by_app", true).apply();
+        tx.setModeOn(true);
         Log.d(TAG, "Silent mode turned ON");
         return true;
     }
 
     /**
-     * Store the original ringer mode only once per day to avoid issues with consecutive classes
+     * Store the original ringer mode unless the app already owns the current one.
+     *
+     * Keying this on ownership rather than on the date keeps back-to-back classes and
+     * classes that span midnight from saving our own vibrate/silent mode as "original".
+     *
+     * @return the original ringer mode to restore at the end of class
      */
-    private void storeOriginalModeIfNeeded() {
-        String currentDate = java.text.DateFormat.getDateInstance().format(new java.util.Date());
-        String storedDate = prefs.getString("original_mode_date", "");
-        
-        // Only store if we haven't stored for today or if no mode is stored at all
-        if (!currentDate.equals(storedDate) || !prefs.getBoolean("ringer_mode_stored", false)) {
-            int currentRingerMode = audioManager.getRingerMode();
-            prefs.edit()
-                    .putInt("original_ringer_mode", currentRingerMode)
-                    .putBoolean("ringer_mode_stored", true)
-                    .putString("original_mode_date", currentDate)
-                    .apply();
-            Log.d(TAG, "Stored original ringer mode: " + currentRingerMode + " for date: " + currentDate);
+    private int storeOriginalModeIfNeeded(DndSettings.Transaction tx) {
+        RuntimeState state = tx.getState();
+        if (state.setByApp && state.ringerModeStored) {
+            return state.originalRingerMode;
         }
+        int today = RuntimeStateStore.today();
+        int currentRingerMode = audioManager.getRingerMode();
+        tx.storeOriginalRingerMode(currentRingerMode, today);
+        Log.d(TAG, "Stored original ringer mode: " + currentRingerMode + " for epoch day: " + today);
+        return currentRingerMode;
     }
 
     /**
-     * Store the original DND state only once per day for true DND mode
+     * Store the original DND filter unless the app already owns the current one
+     *
+     * @return the original filter to restore at the end of class
      */
-    private void storeOriginalDndStateIfNeeded() {
-        String currentDate = DateFormat.getDateInstance().format(new Date());
-        String storedDate = prefs.getString("original_dnd_date", "");
-        
-        // Only store if we haven't stored for today or if no state is stored at all
-        if (!currentDate.equals(storedDate) || !prefs.getBoolean("dnd_state_stored", false)) {
-            int currentFilter = notificationManager.getCurrentInterruptionFilter();
-            prefs.edit()
-                    .putInt("original_dnd_filter", currentFilter)
-                    .putBoolean("dnd_state_stored", true)
-                    .putString("original_dnd_date", currentDate)
-                    .apply();
-            Log.d(TAG, "Stored original DND filter: " + currentFilter + " for date: " + currentDate);
+    private int storeOriginalDndStateIfNeeded(DndSettings.Transaction tx) {
+        RuntimeState state = tx.getState();
+        if (state.setByApp && state.dndStateStored) {
+            return state.originalDndFilter;
         }
+        int today = RuntimeStateStore.today();
+        int currentFilter = notificationManager.getCurrentInterruptionFilter();
+        tx.storeOriginalDndFilter(currentFilter, today);
+        Log.d(TAG, "Stored original DND filter: " + currentFilter + " for epoch day: " + today);
+        return currentFilter;
     }
 
-    private boolean restoreNormalMode() {
+    private boolean restoreNormalMode(DndSettings.Transaction tx) {
         // Restore original ringer mode
-        int originalRingerMode = prefs.getInt("original_ringer_mode", AudioManager.RINGER_MODE_NORMAL);
+        int originalRingerMode = tx.getState().originalRingerMode;
+        if (!tx.journal(TransitionJournal.KIND_RINGER_OFF, originalRingerMode, originalRingerMode)) {
+            return false;
+        }
         audioManager.setRingerMode(originalRingerMode);
         
         // Only clear DND status but keep the original mode stored for consecutive classes
-        prefs.edit()
-                .putBoolean("dnd_currently_on", false)
-                .putBoolean("dnd_set_by_app", false)
-                .apply();
+        tx.setModeOn(false);
         
         Log.d(TAG, "Restored to original ringer mode: " + originalRingerMode);
         return true;
     }
 
-    private boolean setDndMode() {
+    private boolean setDndMode(DndSettings.Transaction tx) {
         if (hasDndAccess()) {
-            // Store the original DND state before changing it
-            storeOriginalDndStateIfNeeded();
+            // Store the original DND state before changing it, journaled before the change
+            int originalFilter = storeOriginalDndStateIfNeeded(tx);
+            if (!tx.journal(TransitionJournal.KIND_DND_ON, originalFilter, NotificationManager.INTERRUPTION_FILTER_NONE)) {
+                return false;
+            }
             
             notificationManager.setInterruptionFilter(NotificationManager.INTERRUPTION_FILTER_NONE);
-            prefs.edit().putBoolean("dnd_currently_on", true).apply();
-            prefs.edit().putBoolean("dnd_set_by_app", true).apply();
+            tx.setModeOn(true);
             Log.d(TAG, "DND turned ON");
             return true;
         } else {
@@ -632,16 +767,26 @@ public class DNDManager {
     }
 
     public boolean setDndOff() {
+        try (DndSettings.Transaction tx = settings.beginTransaction("dnd_off")) {
+            boolean result = setDndOff(tx);
+            tx.commit();
+            return result;
+        }
+    }
+
+    private boolean setDndOff(DndSettings.Transaction tx) {
         if (!isDndSchedulingEnabled()) {
             Log.d(TAG, "setDndOff() called but DND scheduling is disabled. Ignoring.");
             return false;
         }
         if (hasDndAccess()) {
             // Restore original DND filter instead of just setting to ALL
-            int originalFilter = prefs.getInt("original_dnd_filter", NotificationManager.INTERRUPTION_FILTER_ALL);
+            int originalFilter = tx.getState().originalDndFilter;
+            if (!tx.journal(TransitionJournal.KIND_DND_OFF, originalFilter, originalFilter)) {
+                return false;
+            }
             notificationManager.setInterruptionFilter(originalFilter);
-            prefs.edit().putBoolean("dnd_currently_on", false).apply();
-            prefs.edit().putBoolean("dnd_set_by_app", false).apply();
+            tx.setModeOn(false);
             Log.d(TAG, "DND turned OFF, restored to filter: " + originalFilter);
             return true;
         } else {
@@ -659,15 +804,16 @@ public class DNDManager {
     }
 
     public boolean isDndSchedulingEnabled() {
-        return prefs.getBoolean("dnd_scheduling_enabled", false);
+        return settings.isSchedulingEnabled();
     }
 
     public String getSilentModeType() {
-        return prefs.getString("silent_mode_type", "vibrate"); // Default to Vibrate mode (options: "dnd", "vibrate", "silent")
+        return settings.getSilentModeType(); // Default to Vibrate mode (options: "dnd", "vibrate", "silent")
     }
 
     public void setSilentModeType(String modeType) {
-        prefs.edit().putString("silent_mode_type", modeType).apply();
+        settings.edit().putString("silent_mode_type", modeType).apply();
+        ScheduleBundle.saveForBackup(context);
         Log.d(TAG, "Silent mode type set to: " + modeType);
     }
 
@@ -1,21 +1,18 @@
 package com.harish.dndscheduler;
  
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
-import java.util.Calendar;
 
 public class DNDReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        SharedPreferences prefs = context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
-        boolean isSchedulingEnabled = prefs.getBoolean("dnd_scheduling_enabled", true);
+        long startedAt = SystemClock.elapsedRealtime();
+        boolean isSchedulingEnabled = DndSettings.getInstance(context).isSchedulingEnabled();
 
         if (!isSchedulingEnabled) {
             Log.d("DNDReceiver", "DND scheduling is disabled. Ignoring alarm.");
@@ -37,13 +34,20 @@ public class DNDReceiver extends BroadcastReceiver {
                 }
                 
                 boolean isBackup = intent.getBooleanExtra("isBackup", false);
-                if (dndManager.setSilentModeOn()) {
+                byte source = isBackup ? TransitionLog.SOURCE_BACKUP_ALARM : TransitionLog.SOURCE_ALARM;
+                if (!handleUserOverride(dndManager, isBackup)) {
+                    logEvent(context, dndManager, intent, source, TransitionLog.ACTION_IGNORED, true, startedAt);
+                    return;
+                }
+                boolean success = dndManager.setSilentModeOn();
+                logEvent(context, dndManager, intent, source, TransitionLog.ACTION_MODE_ON, success, startedAt);
+                if (success) {
                     String modeType = dndManager.getSilentModeType();
                     String modeText = modeType.equals("dnd") ? "DND" : 
                                      modeType.equals("vibrate") ? "Vibrate mode" : "Silent mode";
                     Log.d("DNDReceiver", modeText + " turned ON via " + (isBackup ? "backup " : "") + "alarm");
-                    if (!isBackup) { // Only reschedule from primary alarm
-                        rescheduleAlarmForNextWeek(context, intent);
+                    if (!isBackup) { // Only check timing from primary alarm
+                        checkHorizon(context, intent);
                     }
                 } else {
                     String modeType = dndManager.getSilentModeType();
@@ -60,13 +64,20 @@ public class DNDReceiver extends BroadcastReceiver {
                 }
                 
                 boolean isBackup = intent.getBooleanExtra("isBackup", false);
-                if (dndManager.setSilentModeOff()) {
+                byte source = isBackup ? TransitionLog.SOURCE_BACKUP_ALARM : TransitionLog.SOURCE_ALARM;
+                if (!handleUserOverride(dndManager, isBackup)) {
+                    logEvent(context, dndManager, intent, source, TransitionLog.ACTION_IGNORED, true, startedAt);
+                    return;
+                }
+                boolean success = dndManager.setSilentModeOff();
+                logEvent(context, dndManager, intent, source, TransitionLog.ACTION_MODE_OFF, success, startedAt);
+                if (success) {
                     String modeType = dndManager.getSilentModeType();
                     String modeText = modeType.equals("dnd") ? "DND" : 
                                      modeType.equals("vibrate") ? "Vibrate mode" : "Silent mode";
                     Log.d("DNDReceiver", modeText + " turned OFF via " + (isBackup ? "backup " : "") + "alarm");
-                    if (!isBackup) { // Only reschedule from primary alarm
-                        rescheduleAlarmForNextWeek(context, intent);
+                    if (!isBackup) { // Only check timing from primary alarm
+                        checkHorizon(context, intent);
                     }
                 } else {
                     String modeType = dndManager.getSilentModeType();
@@ -81,95 +92,84 @@ public class DNDReceiver extends BroadcastReceiver {
                     Log.d("DNDReceiver", "DND scheduling is disabled - ignoring periodic check");
                     return;
                 }
-                dndManager.checkAndSetCurrentDndStatus(null);
+                dndManager.checkAndSetCurrentDndStatus();
+                logEvent(context, dndManager, intent, TransitionLog.SOURCE_PERIODIC, TransitionLog.ACTION_CHECK, true, startedAt);
+                if (HorizonScheduler.needsTopUp(context)) {
+                    HorizonWorker.requestTopUp(context);
+                }
                 Log.d("DNDReceiver", "Periodic DND status check completed");
                 
             } else if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
                 if (dndManager.isDndSchedulingEnabled()) {
+                    // Fast path: compiled schedule only, full reschedule deferred to idle
+                    if (dndManager.restoreFromCompiledSchedule()) {
+                        logEvent(context, dndManager, intent, TransitionLog.SOURCE_BOOT, TransitionLog.ACTION_RESTORE, true, startedAt);
+                        Log.d("DNDReceiver", "DND scheduling restored after boot (fast path)");
+                        return;
+                    }
                     dndManager.scheduleDndForClasses();
+                    logEvent(context, dndManager, intent, TransitionLog.SOURCE_BOOT, TransitionLog.ACTION_RESTORE, true, startedAt);
                     Log.d("DNDReceiver", "DND scheduling restored after boot");
                 }
                 
             } else if (Intent.ACTION_TIME_CHANGED.equals(action) ||
                     Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
                 if (dndManager.isDndSchedulingEnabled()) {
+                    if (dndManager.onClockChanged()) {
+                        logEvent(context, dndManager, intent, TransitionLog.SOURCE_TIME_CHANGE, TransitionLog.ACTION_REPLAN, true, startedAt);
+                        Log.d("DNDReceiver", "DND scheduling updated after time change (fast path)");
+                        return;
+                    }
                     dndManager.scheduleDndForClasses();
+                    logEvent(context, dndManager, intent, TransitionLog.SOURCE_TIME_CHANGE, TransitionLog.ACTION_REPLAN, true, startedAt);
                     Log.d("DNDReceiver", "DND scheduling updated after time change");
                 }
             }
 
             // Always check and enforce current DND status
-            dndManager.checkAndSetCurrentDndStatus(null);
+            dndManager.checkAndSetCurrentDndStatus();
             
         } catch (Exception e) {
             Log.e("DNDReceiver", "Error handling alarm: " + action, e);
         }
     }
 
+    private void logEvent(Context context, DNDManager dndManager, Intent intent, byte source, byte action,
+                          boolean success, long startedAt) {
+        TransitionLog.record(context, source, action, TransitionLog.modeOf(dndManager.getSilentModeType()),
+                success, SystemClock.elapsedRealtime() - startedAt, intent.getIntExtra("request_code", 0));
+    }
+
     /**
-     * Reschedules the same alarm for next week (7 days later)
-     * This ensures alarms continue working indefinitely
+     * A scheduled transition ends any manual override (DNDManager clears it as part
+     * of the transition), but the backup alarm that follows a minute later must not
+     * undo a change the user just made.
+     *
+     * @return false if this alarm should be ignored
      */
-    private void rescheduleAlarmForNextWeek(Context context, Intent originalIntent) {
-        try {
-            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-            if (alarmManager == null) {
-                Log.e("DNDReceiver", "AlarmManager is null, cannot reschedule");
-                return;
-            }
-            
-            // Create new intent with same action and data
-            Intent newIntent = new Intent(context, DNDReceiver.class);
-            newIntent.setAction(originalIntent.getAction());
-            
-            // Preserve the time information
-            if (originalIntent.hasExtra("hour") && originalIntent.hasExtra("minute")) {
-                newIntent.putExtra("hour", originalIntent.getIntExtra("hour", 0));
-                newIntent.putExtra("minute", originalIntent.getIntExtra("minute", 0));
-                newIntent.putExtra("requestCode", originalIntent.getIntExtra("requestCode", 0));
-            }
-            
-            // Use the same request code to maintain uniqueness
-            int requestCode = originalIntent.getIntExtra("requestCode", originalIntent.hashCode());
-            
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                requestCode,
-                newIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-            );
-            
-            // Schedule for exactly 7 days from now (same time next week)
-            Calendar nextWeek = Calendar.getInstance();
-            nextWeek.add(Calendar.DAY_OF_YEAR, 7);
-            
-            // If we have the original time info, use it for more precise scheduling
-            if (originalIntent.hasExtra("hour") && originalIntent.hasExtra("minute")) {
-                nextWeek.set(Calendar.HOUR_OF_DAY, originalIntent.getIntExtra("hour", 0));
-                nextWeek.set(Calendar.MINUTE, originalIntent.getIntExtra("minute", 0));
-                nextWeek.set(Calendar.SECOND, 0);
-                nextWeek.set(Calendar.MILLISECOND, 0);
-            }
-            
-            // Validate future time
-            if (nextWeek.getTimeInMillis() <= System.currentTimeMillis()) {
-                Log.w("DNDReceiver", "Calculated next week time is in the past, adding another week");
-                nextWeek.add(Calendar.DAY_OF_YEAR, 7);
-            }
-            
-            alarmManager.setExactAndAllowWhileIdle(
-                AlarmManager.RTC_WAKEUP,
-                nextWeek.getTimeInMillis(),
-                pendingIntent
-            );
-            
-            Log.d("DNDReceiver", "Rescheduled " + originalIntent.getAction() + 
-                  " for next week: " + nextWeek.getTime() + " (RequestCode: " + requestCode + ")");
-                  
-        } catch (SecurityException e) {
-            Log.e("DNDReceiver", "Permission denied for alarm scheduling", e);
-        } catch (Exception e) {
-            Log.e("DNDReceiver", "Failed to reschedule alarm", e);
+    private boolean handleUserOverride(DNDManager dndManager, boolean isBackup) {
+        if (isBackup && dndManager.isUserOverrideActive()) {
+            Log.d("DNDReceiver", "User override active - ignoring backup alarm");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Alarms are armed ahead of time by HorizonScheduler, so deliveries never re-arm
+     * themselves. A late delivery means the device clock or alarm state moved under us,
+     * so ask for a full re-plan; otherwise just top up the horizon when it runs low.
+     */
+    private void checkHorizon(Context context, Intent intent) {
+        long triggerAt = intent.getLongExtra(HorizonScheduler.EXTRA_TRIGGER_AT, 0);
+        // Alarms armed before the window was recorded count as exact
+        long window = intent.getLongExtra(HorizonScheduler.EXTRA_WINDOW, 0);
+        long lateBy = System.currentTimeMillis() - triggerAt;
+        if (triggerAt > 0 && HorizonScheduler.isLateDelivery(lateBy, window)) {
+            Log.w("DNDReceiver", "Alarm delivered " + (lateBy / 1000) + "s late - requesting re-plan");
+            HorizonWorker.requestReplan(context);
+        } else if (HorizonScheduler.needsTopUp(context)) {
+            HorizonWorker.requestTopUp(context);
         }
     }
-}
\ No newline at end of file
+}
@@ -9,9 +9,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.util.Log;
 
 import java.util.List;
@@ -22,23 +20,22 @@ public class DNDService extends Service {
 
     private static final String CHANNEL_ID = "DND_SERVICE_CHANNEL";
     private static final int NOTIFICATION_ID = 1001;
-    private static final int CHECK_INTERVAL = 3 * 60 * 1000; // 3 minutes - more frequent for reliability
 
-    private Handler handler;
-    private Runnable checkRunnable;
     private DNDManager dndManager;
+    private DndChangeReceiver dndChangeReceiver;
 
     @Override
     public void onCreate() {
         super.onCreate();
         dndManager = DNDManager.getInstance(this);
-        handler = new Handler(Looper.getMainLooper());
 
         createNotificationChannel();
         startForeground(NOTIFICATION_ID, createEnhancedNotification());
 
-        // Start enhanced periodic checking
-        startEnhancedPeriodicCheck();
+        // React to manual DND/ringer changes as they happen instead of polling for them
+        dndChangeReceiver = DndChangeReceiver.register(this);
+        TransitionLog.record(this, TransitionLog.SOURCE_SERVICE, TransitionLog.ACTION_SERVICE_START,
+                TransitionLog.modeOf(dndManager.getSilentModeType()), true, 0, 0);
 
         Log.d("DNDService", "Enhanced DND Service created and started");
     }
@@ -49,7 +46,7 @@ public class DNDService extends Service {
 
         // Check DND status immediately only if scheduling is enabled
         if (dndManager.isDndSchedulingEnabled()) {
-            dndManager.checkAndSetCurrentDndStatus(null);
+            dndManager.checkAndSetCurrentDndStatus();
         } else {
             Log.d("DNDService", "DND scheduling disabled - skipping immediate DND check");
         }
@@ -61,9 +58,10 @@ public class DNDService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (handler != null && checkRunnable != null) {
-            handler.removeCallbacks(checkRunnable);
-        }
+        DndChangeReceiver.unregister(this, dndChangeReceiver);
+        dndChangeReceiver = null;
+        TransitionLog.record(this, TransitionLog.SOURCE_SERVICE, TransitionLog.ACTION_SERVICE_STOP,
+                TransitionLog.modeOf(dndManager.getSilentModeType()), true, 0, 0);
         Log.d("DNDService", "DND Service destroyed");
     }
 
@@ -108,48 +106,6 @@ public class DNDService extends Service {
                 .build();
     }
 
-    /**
-     * Enhanced periodic checking with multiple redundancy layers
-     */
-    private void startEnhancedPeriodicCheck() {
-        checkRunnable = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (dndManager.isDndSchedulingEnabled()) {
-                        // Primary check
-                        dndManager.checkAndSetCurrentDndStatus(null);
-                        // Verify alarm status periodically
-                        verifyAlarmStatus();
-                        Log.d("DNDService", "Enhanced periodic DND check completed");
-                    } else {
-                        // If scheduling is disabled, ensure DND is OFF and do not perform any checks
-                        dndManager.setDndOff();
-                        Log.d("DNDService", "DND scheduling disabled - forcibly turning DND OFF and skipping periodic check");
-                    }
-                } catch (Exception e) {
-                    Log.e("DNDService", "Error in enhanced periodic check", e);
-                }
-                // Schedule next check with variable interval to avoid predictable patterns
-                int nextInterval = CHECK_INTERVAL + (int)(Math.random() * 60000); // ±1 minute variation
-                handler.postDelayed(this, nextInterval);
-            }
-        };
-        handler.post(checkRunnable);
-    }
-
-    /**
-     * Verify that critical alarms are still scheduled
-     */
-    private void verifyAlarmStatus() {
-        if (!dndManager.isDndSchedulingEnabled()) {
-            Log.d("DNDService", "DND scheduling is disabled. Skipping alarm verification.");
-            return;
-        }
-        // Existing code for verifying alarm status
-        DNDManager.getInstance(this).checkAndSetCurrentDndStatus(null);
-    }
-
     public static void startService(Context context) {
         Intent intent = new Intent(context, DNDService.class);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -67,12 +67,9 @@ public class DNDUtil {
             calendar.add(Calendar.DAY_OF_YEAR, 1);
         }
         
-        // Primary alarm - exact timing
-        alarmManager.setExactAndAllowWhileIdle(
-                AlarmManager.RTC_WAKEUP,
-                calendar.getTimeInMillis(),
-                pendingIntent
-        );
+        // Primary alarm - strategy depends on how late this transition may fire
+        AlarmSchedulers.forTransition(context, AlarmSchedulers.toleranceForAction(action))
+                .schedule(calendar.getTimeInMillis(), pendingIntent);
         
         // Schedule backup alarm 1 minute later (for redundancy)
         scheduleBackupAlarm(context, alarmManager, calendar, action, requestCode + 10000);
@@ -109,11 +106,9 @@ public class DNDUtil {
             Calendar backupTime = (Calendar) primaryTime.clone();
             backupTime.add(Calendar.MINUTE, 1);
             
-            alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP,
-                    backupTime.getTimeInMillis(),
-                    backupPendingIntent
-            );
+            // Backup only matters if the primary was missed, a window is enough
+            AlarmSchedulers.forTransition(context, AlarmScheduler.Tolerance.TOLERANT)
+                    .schedule(backupTime.getTimeInMillis(), backupPendingIntent);
             
             android.util.Log.d("DNDUtil", "Scheduled backup " + action + " at " + backupTime.getTime());
             
@@ -0,0 +1,56 @@
+package com.harish.dndscheduler;
+
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Runtime receiver that reports DND and ringer mode changes to DNDManager as they happen.
+ *
+ * ACTION_INTERRUPTION_FILTER_CHANGED is only delivered to receivers registered at
+ * runtime, so this is registered by DNDService for as long as it is running.
+ */
+public class DndChangeReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "DndChangeReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        DNDManager dndManager = DNDManager.getInstance(context);
+
+        if (NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED.equals(action)) {
+            Log.d(TAG, "Interruption filter changed");
+            dndManager.onInterruptionFilterChanged();
+        } else if (AudioManager.RINGER_MODE_CHANGED_ACTION.equals(action)) {
+            Log.d(TAG, "Ringer mode changed");
+            dndManager.onRingerModeChanged();
+        }
+    }
+
+    public static DndChangeReceiver register(Context context) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED);
+        filter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
+
+        DndChangeReceiver receiver = new DndChangeReceiver();
+        ContextCompat.registerReceiver(context, receiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        Log.d(TAG, "Listening for DND and ringer mode changes");
+        return receiver;
+    }
+
+    public static void unregister(Context context, DndChangeReceiver receiver) {
+        if (receiver == null) return;
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Receiver was not registered", e);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Typed, cached view of the flags that every alarm and DND check reads.
+ *
+ * The values live in an immutable Snapshot held in a volatile field, so hot paths
+ * read memory instead of going through the SharedPreferences map lock. The snapshot
+ * is rebuilt whenever one of its keys changes: by the change listener for writes made
+ * anywhere in the app, and straight away for writes made through {@link #edit()},
+ * since the listener is only called on the main thread.
+ *
+ * Runtime state that changes on every transition (ownership, override, saved original
+ * mode) lives in RuntimeStateStore instead. Changes that belong together go through a
+ * {@link Transaction} so they hit disk as one small atomic write, preceded by a
+ * TransitionJournal intent when the system mode is about to change. Transactions run
+ * one at a time, so one never writes back state another has changed since. Write counters
+ * cover the settings and state files and are kept for verification.
+ */
+public final class DndSettings implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final String TAG = "DndSettings";
+    public static final String PREFS_NAME = "dnd_prefs";
+
+    public static final String KEY_SCHEDULING_ENABLED = "dnd_scheduling_enabled";
+    public static final String KEY_SILENT_MODE_TYPE = "silent_mode_type";
+    public static final String KEY_SATURDAY_FOLLOWS = "saturday_follows";
+
+    public static final String DEFAULT_SILENT_MODE_TYPE = "vibrate"; // options: "dnd", "vibrate", "silent"
+    public static final String SATURDAY_HOLIDAY = "None (Holiday)";
+
+    private static final Set<String> SNAPSHOT_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            KEY_SCHEDULING_ENABLED, KEY_SILENT_MODE_TYPE, KEY_SATURDAY_FOLLOWS)));
+
+    /**
+     * Immutable copy of the hot flags
+     */
+    public static final class Snapshot {
+        public final boolean schedulingEnabled;
+        public final String silentModeType;
+        public final String saturdayFollows;
+
+        Snapshot(SharedPreferences prefs) {
+            schedulingEnabled = prefs.getBoolean(KEY_SCHEDULING_ENABLED, false);
+            silentModeType = prefs.getString(KEY_SILENT_MODE_TYPE, DEFAULT_SILENT_MODE_TYPE);
+            saturdayFollows = prefs.getString(KEY_SATURDAY_FOLLOWS, SATURDAY_HOLIDAY);
+        }
+    }
+
+    // Every write of dnd_prefs made through this class, and every committed transaction
+    private static final AtomicLong writeCount = new AtomicLong();
+    private static final AtomicLong transactionCount = new AtomicLong();
+    private static volatile long lastTransactionWrites;
+
+    private static DndSettings instance;
+
+    private final SharedPreferences prefs;
+    private final RuntimeStateStore stateStore;
+    private final TransitionJournal journal;
+    // Held from beginTransaction until commit or close
+    private final ReentrantLock transactionLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    private DndSettings(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.stateStore = RuntimeStateStore.getInstance(context);
+        this.journal = TransitionJournal.getInstance(context);
+        this.snapshot = new Snapshot(prefs);
+        // SharedPreferences only keeps a weak reference; the singleton keeps us alive
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    public static synchronized DndSettings getInstance(Context context) {
+        if (instance == null) {
+            instance = new DndSettings(context);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // A null key means the file was cleared
+        if (key == null || SNAPSHOT_KEYS.contains(key)) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        Snapshot previous = snapshot;
+        snapshot = new Snapshot(prefs);
+        if (!snapshot.saturdayFollows.equals(previous.saturdayFollows)) {
+            ScheduleSnapshot.onSaturdayFollowsChanged(snapshot.saturdayFollows);
+        }
+        Log.d(TAG, "Settings snapshot refreshed");
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isSchedulingEnabled() {
+        return snapshot.schedulingEnabled;
+    }
+
+    public String getSilentModeType() {
+        return snapshot.silentModeType;
+    }
+
+    public boolean isDndSetByApp() {
+        return stateStore.get().setByApp;
+    }
+
+    public boolean isUserOverrideActive() {
+        return stateStore.get().userOverride;
+    }
+
+    public RuntimeState getRuntimeState() {
+        return stateStore.get();
+    }
+
+    /**
+     * The journal entry left behind by a transition that never committed, or null
+     */
+    public TransitionJournal.Entry getPendingJournalEntry() {
+        TransitionJournal.Entry entry = journal.read();
+        if (entry == null || entry.seq <= stateStore.get().journalSeq) {
+            return null;
+        }
+        return entry;
+    }
+
+    public String getSaturdayFollows() {
+        return snapshot.saturdayFollows;
+    }
+
+    /**
+     * Underlying preferences, for keys that are not part of the snapshot
+     */
+    public SharedPreferences getPrefs() {
+        return prefs;
+    }
+
+    /**
+     * Start collecting the writes of one state transition. Waits for any transaction
+     * running on another thread, so the state read here is not overwritten by it; the
+     * caller must commit or close the transaction.
+     */
+    public Transaction beginTransaction(String name) {
+        transactionLock.lock();
+        try {
+            return new Transaction(name);
+        } catch (RuntimeException e) {
+            transactionLock.unlock();
+            throw e;
+        }
+    }
+
+    public static long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public static long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    /**
+     * Writes made between begin and commit of the last transaction, including its own.
+     * Anything above 1 means some code path wrote outside the transaction.
+     */
+    public static long getLastTransactionWrites() {
+        return lastTransactionWrites;
+    }
+
+    /**
+     * Batches every runtime state change of one transition into a single write of the
+     * state file. Nothing is written if nothing changed.
+     *
+     * Transitions that change the system mode call {@link #journal} before doing so;
+     * the commit then also marks that journal entry as done.
+     *
+     * Other transactions wait until this one is committed or closed, so callers that may
+     * throw before committing use try-with-resources.
+     */
+    public final class Transaction implements AutoCloseable {
+        private final String name;
+        private final RuntimeState before = stateStore.get();
+        private final RuntimeState.Builder state = before.toBuilder();
+        private final long writesAtStart = writeCount.get();
+        private int changes;
+        private boolean finished;
+
+        private Transaction(String name) {
+            this.name = name;
+        }
+
+        /**
+         * State as it was when the transaction began
+         */
+        public RuntimeState getState() {
+            return before;
+        }
+
+        public Transaction setModeOn(boolean on) {
+            state.setCurrentlyOn(on).setSetByApp(on);
+            changes++;
+            return this;
+        }
+
+        public Transaction markUserOverride() {
+            state.setCurrentlyOn(false).setSetByApp(false).setUserOverride(true);
+            changes++;
+            return this;
+        }
+
+        public Transaction clearUserOverride() {
+            state.setUserOverride(false);
+            changes++;
+            return this;
+        }
+
+        public Transaction storeOriginalRingerMode(int ringerMode, int epochDay) {
+            state.setOriginalRingerMode(ringerMode).setRingerModeStored(true).setRingerModeEpochDay(epochDay);
+            changes++;
+            return this;
+        }
+
+        public Transaction storeOriginalDndFilter(int filter, int epochDay) {
+            state.setOriginalDndFilter(filter).setDndStateStored(true).setDndStateEpochDay(epochDay);
+            changes++;
+            return this;
+        }
+
+        /**
+         * Record the intent of a mode change before applying it
+         *
+         * @return false if the intent could not be made durable
+         */
+        public boolean journal(int kind, int originalValue, int targetValue) {
+            int seq = before.journalSeq + 1;
+            TransitionJournal.Entry entry = new TransitionJournal.Entry(
+                    kind, seq, RuntimeStateStore.today(), originalValue, targetValue);
+            if (!journal.writeIntent(entry)) {
+                return false;
+            }
+            state.setJournalSeq(seq);
+            changes++;
+            return true;
+        }
+
+        /**
+         * Mark an interrupted journal entry as handled
+         */
+        public Transaction recovered(int seq) {
+            state.setJournalSeq(seq);
+            changes++;
+            return this;
+        }
+
+        public boolean commit() {
+            if (finished) {
+                throw new IllegalStateException("Transaction " + name + " already finished");
+            }
+            try {
+                boolean result = true;
+                if (changes > 0) {
+                    result = stateStore.put(state.build());
+                    writeCount.incrementAndGet();
+                }
+                transactionCount.incrementAndGet();
+                lastTransactionWrites = writeCount.get() - writesAtStart;
+                Log.d(TAG, "Transaction " + name + " committed " + changes + " changes in "
+                        + lastTransactionWrites + " write(s)");
+                return result;
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Drop the transaction without writing, unless it was already committed
+         */
+        @Override
+        public void close() {
+            if (!finished) {
+                Log.w(TAG, "Transaction " + name + " closed without commit, " + changes + " changes dropped");
+                finish();
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Editor that refreshes the snapshot as soon as it is applied, on any thread
+     */
+    public SharedPreferences.Editor edit() {
+        return new RefreshingEditor(prefs.edit());
+    }
+
+    private final class RefreshingEditor implements SharedPreferences.Editor {
+        private final SharedPreferences.Editor delegate;
+
+        RefreshingEditor(SharedPreferences.Editor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override public SharedPreferences.Editor putString(String key, String value) { delegate.putString(key, value); return this; }
+        @Override public SharedPreferences.Editor putStringSet(String key, Set<String> values) { delegate.putStringSet(key, values); return this; }
+        @Override public SharedPreferences.Editor putInt(String key, int value) { delegate.putInt(key, value); return this; }
+        @Override public SharedPreferences.Editor putLong(String key, long value) { delegate.putLong(key, value); return this; }
+        @Override public SharedPreferences.Editor putFloat(String key, float value) { delegate.putFloat(key, value); return this; }
+        @Override public SharedPreferences.Editor putBoolean(String key, boolean value) { delegate.putBoolean(key, value); return this; }
+        @Override public SharedPreferences.Editor remove(String key) { delegate.remove(key); return this; }
+        @Override public SharedPreferences.Editor clear() { delegate.clear(); return this; }
+
+        @Override
+        public boolean commit() {
+            boolean result = delegate.commit();
+            writeCount.incrementAndGet();
+            refresh();
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            // apply() updates the in-memory map before returning, so the re-read sees it
+            delegate.apply();
+            writeCount.incrementAndGet();
+            refresh();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Date-specific exceptions laid over the weekly timetable: whole-day holidays, single
+ * cancelled classes and one-off extra sessions.
+ *
+ * Entries are kept in an immutable index sorted by epoch day, with the days in a
+ * parallel int array, so "what happens on this date" is a binary search plus a scan
+ * of that day's few entries. Edits build a new index and swap it in; readers on the
+ * alarm and check paths never lock.
+ *
+ * HorizonScheduler skips (and cancels) every transition on a holiday or of a
+ * cancelled class, so those days get no wakeups at all, and arms extra sessions like
+ * regular classes under request codes of their own; a removed extra session has its
+ * alarms cancelled through DNDManager. DNDManager asks {@link #inClassOverride}
+ * before the timetable.
+ */
+public final class ExceptionCalendar {
+
+    private static final String TAG = "ExceptionCalendar";
+    private static final String FILE_NAME = "exception_calendar.bin";
+    private static final int MAGIC = 0x444E4458; // "DNDX"
+    private static final int VERSION = 1;
+
+    public static final int KIND_HOLIDAY = 1;
+    public static final int KIND_CANCELLED = 2;
+    public static final int KIND_EXTRA = 3;
+
+    // Entries older than this many days are dropped on the next edit
+    private static final int KEEP_PAST_DAYS = 7;
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingInt((Entry e) -> e.epochDay)
+            .thenComparingInt(e -> e.kind)
+            .thenComparingInt(e -> e.startMinute);
+
+    /**
+     * One exception. Holidays ignore the times; a cancellation matches the class with
+     * the same start and end on that date.
+     */
+    public static final class Entry {
+        public final int epochDay;
+        public final int kind;
+        public final int startMinute;
+        public final int endMinute;
+        public final String label;
+
+        private Entry(int epochDay, int kind, int startMinute, int endMinute, String label) {
+            this.epochDay = epochDay;
+            this.kind = kind;
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+            this.label = label != null ? label : "";
+        }
+
+        public static Entry holiday(LocalDate date, String label) {
+            return new Entry((int) date.toEpochDay(), KIND_HOLIDAY, 0, 0, label);
+        }
+
+        public static Entry cancelled(LocalDate date, LocalTime start, LocalTime end, String label) {
+            return new Entry((int) date.toEpochDay(), KIND_CANCELLED,
+                    ScheduleClock.minuteOfDay(start), ScheduleClock.minuteOfDay(end), label);
+        }
+
+        public static Entry extra(LocalDate date, LocalTime start, LocalTime end, String label) {
+            return new Entry((int) date.toEpochDay(), KIND_EXTRA,
+                    ScheduleClock.minuteOfDay(start), ScheduleClock.minuteOfDay(end), label);
+        }
+
+        public LocalDate getDate() { return LocalDate.ofEpochDay(epochDay); }
+        public LocalTime getStart() { return ScheduleClock.fromMinuteOfDay(startMinute); }
+        public LocalTime getEnd() { return ScheduleClock.fromMinuteOfDay(endMinute); }
+
+        boolean covers(int minuteOfDay) {
+            return kind == KIND_HOLIDAY || (minuteOfDay >= startMinute && minuteOfDay < endMinute);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return epochDay == other.epochDay && kind == other.kind
+                    && startMinute == other.startMinute && endMinute == other.endMinute;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(epochDay, kind, startMinute, endMinute);
+        }
+    }
+
+    /**
+     * Sorted entries plus their days, for binary search
+     */
+    private static final class Index {
+        final Entry[] entries;
+        final int[] days;
+
+        Index(List<Entry> sorted) {
+            entries = sorted.toArray(new Entry[0]);
+            days = new int[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                days[i] = entries[i].epochDay;
+            }
+        }
+
+        /**
+         * First position whose day is >= epochDay
+         */
+        int lowerBound(int epochDay) {
+            int lo = 0;
+            int hi = days.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (days[mid] < epochDay) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static ExceptionCalendar instance;
+
+    private final File file;
+    private volatile Index index;
+
+    private ExceptionCalendar(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    ExceptionCalendar(File file) {
+        this.file = file;
+        this.index = new Index(load());
+    }
+
+    public static synchronized ExceptionCalendar getInstance(Context context) {
+        if (instance == null) {
+            instance = new ExceptionCalendar(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Exceptions on one date, in index order
+     */
+    public List<Entry> entriesOn(int epochDay) {
+        Index current = index;
+        List<Entry> result = new ArrayList<>(2);
+        for (int i = current.lowerBound(epochDay); i < current.days.length && current.days[i] == epochDay; i++) {
+            result.add(current.entries[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Exceptions from the given date on
+     */
+    public List<Entry> getUpcoming(int fromEpochDay) {
+        Index current = index;
+        List<Entry> result = new ArrayList<>();
+        for (int i = current.lowerBound(fromEpochDay); i < current.entries.length; i++) {
+            result.add(current.entries[i]);
+        }
+        return result;
+    }
+
+    public boolean isHoliday(int epochDay) {
+        Index current = index;
+        int i = current.lowerBound(epochDay);
+        // Holidays sort first within a day
+        return i < current.days.length && current.days[i] == epochDay && current.entries[i].kind == KIND_HOLIDAY;
+    }
+
+    /**
+     * Whether the exceptions decide the in-class state at this moment: TRUE during an
+     * extra session, FALSE on a holiday or during a cancelled class, null to fall back
+     * to the timetable.
+     */
+    public Boolean inClassOverride(LocalDate date, LocalTime time) {
+        List<Entry> entries = entriesOn((int) date.toEpochDay());
+        if (entries.isEmpty()) {
+            return null;
+        }
+        int minute = ScheduleClock.minuteOfDay(time);
+        Boolean result = null;
+        for (Entry entry : entries) {
+            if (!entry.covers(minute)) {
+                continue;
+            }
+            if (entry.kind == KIND_EXTRA) {
+                return Boolean.TRUE; // an extra session wins even on a holiday
+            }
+            result = Boolean.FALSE;
+        }
+        return result;
+    }
+
+    /**
+     * Whether a planned weekly transition falls on a holiday or belongs to a cancelled class
+     */
+    public boolean isSkipped(CompiledSchedule.Transition transition, ZoneId zone) {
+        int epochDay = (int) Instant.ofEpochMilli(transition.triggerAtMillis).atZone(zone).toLocalDate().toEpochDay();
+        List<Entry> entries = entriesOn(epochDay);
+        if (entries.isEmpty()) {
+            return false;
+        }
+        int minute = ScheduleClock.minuteOfDay(transition.time);
+        for (Entry entry : entries) {
+            if (entry.kind == KIND_HOLIDAY) {
+                return true;
+            }
+            if (entry.kind == KIND_CANCELLED
+                    && (transition.isStart ? entry.startMinute : entry.endMinute) == minute) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ON and OFF transitions of extra sessions in (fromMillis, toMillis]
+     */
+    public List<CompiledSchedule.Transition> extraTransitions(long fromMillis, long toMillis, ZoneId zone) {
+        Index current = index;
+        int firstDay = (int) Instant.ofEpochMilli(fromMillis).atZone(zone).toLocalDate().toEpochDay();
+        int lastDay = (int) Instant.ofEpochMilli(toMillis).atZone(zone).toLocalDate().toEpochDay();
+        List<CompiledSchedule.Transition> result = new ArrayList<>();
+        for (int i = current.lowerBound(firstDay); i < current.days.length && current.days[i] <= lastDay; i++) {
+            Entry entry = current.entries[i];
+            if (entry.kind != KIND_EXTRA) {
+                continue;
+            }
+            addIfInRange(result, entry, entry.getStart(), true, fromMillis, toMillis, zone);
+            addIfInRange(result, entry, entry.getEnd(), false, fromMillis, toMillis, zone);
+        }
+        return result;
+    }
+
+    /**
+     * ON and OFF transitions of one extra session, wherever they fall
+     */
+    public static List<CompiledSchedule.Transition> transitionsOf(Entry entry, ZoneId zone) {
+        List<CompiledSchedule.Transition> result = new ArrayList<>(2);
+        if (entry.kind == KIND_EXTRA) {
+            addIfInRange(result, entry, entry.getStart(), true, Long.MIN_VALUE, Long.MAX_VALUE, zone);
+            addIfInRange(result, entry, entry.getEnd(), false, Long.MIN_VALUE, Long.MAX_VALUE, zone);
+        }
+        return result;
+    }
+
+    private static void addIfInRange(List<CompiledSchedule.Transition> result, Entry entry, LocalTime time,
+                                     boolean isStart, long fromMillis, long toMillis, ZoneId zone) {
+        LocalDate date = entry.getDate();
+        long triggerAt = date.atTime(time).atZone(zone).toInstant().toEpochMilli();
+        if (triggerAt > fromMillis && triggerAt <= toMillis) {
+            result.add(new CompiledSchedule.Transition(date.getDayOfWeek(), time, isStart, triggerAt, true));
+        }
+    }
+
+    public synchronized boolean add(Entry entry) {
+        List<Entry> entries = editableCopy();
+        if (entries.contains(entry)) {
+            return false;
+        }
+        entries.add(entry);
+        return publish(entries);
+    }
+
+    public synchronized boolean remove(Entry entry) {
+        List<Entry> entries = editableCopy();
+        if (!entries.remove(entry)) {
+            return false;
+        }
+        return publish(entries);
+    }
+
+    /**
+     * Current entries minus the ones that are long past
+     */
+    private List<Entry> editableCopy() {
+        int oldestKept = RuntimeStateStore.today() - KEEP_PAST_DAYS;
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : index.entries) {
+            if (entry.epochDay >= oldestKept) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private boolean publish(List<Entry> entries) {
+        Collections.sort(entries, ORDER);
+        if (!save(entries)) {
+            return false;
+        }
+        index = new Index(entries);
+        Log.d(TAG, "Exception calendar now has " + entries.size() + " entries");
+        return true;
+    }
+
+    private boolean save(List<Entry> entries) {
+        if (!StorageMigrator.canWrite(FILE_NAME)) {
+            return false;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeInt(entry.epochDay);
+                out.writeByte(entry.kind);
+                out.writeShort(entry.startMinute);
+                out.writeShort(entry.endMinute);
+                out.writeUTF(entry.label);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write exception calendar", e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace exception calendar file");
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private List<Entry> load() {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Exception calendar has unknown format, ignoring");
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(in.readInt(), in.readByte(), in.readShort(), in.readShort(), in.readUTF()));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read exception calendar", e);
+            entries.clear();
+        }
+        // Written sorted, but don't trust the file with the binary search
+        Collections.sort(entries, ORDER);
+        return entries;
+    }
+}
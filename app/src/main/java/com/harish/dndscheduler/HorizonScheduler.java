@@ -0,0 +1,371 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.app.PendingIntent;
+import android.util.Log;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the next HORIZON_DAYS days of DND transitions armed in one batch.
+ *
+ * Alarm deliveries never re-arm themselves. Instead the horizon is topped up from
+ * HorizonWorker (daily, and whenever the receiver notices it has shrunk) and fully
+ * re-planned after boot, time changes or a late delivery. Re-planning is idempotent:
+ * every occurrence maps to the same request code, so arming it again just replaces it.
+ * Codes alternate with the week, so a top-up never replaces an alarm of the current
+ * week that is still pending (e.g. deferred by Doze).
+ *
+ * ExceptionCalendar is applied while planning: transitions on holidays and of cancelled
+ * classes are cancelled instead of armed, and extra sessions are armed alongside.
+ */
+public final class HorizonScheduler {
+
+    private static final String TAG = "HorizonScheduler";
+
+    // Request codes tell apart only two consecutive weeks, so the horizon must not exceed one week
+    public static final int HORIZON_DAYS = 7;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long HORIZON_MS = HORIZON_DAYS * DAY_MS;
+
+    // Top up once less than this much of the horizon is left
+    private static final long TOP_UP_THRESHOLD_MS = (HORIZON_DAYS - 1) * DAY_MS;
+
+    // Deliveries later than this past the end of their delivery window trigger a full re-plan
+    static final long LATE_DELIVERY_GRACE_MS = 2 * 60 * 1000;
+
+    public static final String EXTRA_TRIGGER_AT = "trigger_at";
+    // Delivery window of the strategy the alarm was armed with
+    public static final String EXTRA_WINDOW = "window_millis";
+
+    // Horizon alarms have their own request code range, clear of the periodic check
+    // (9999) and of the day/hour/minute codes armed by older versions
+    private static final int REQUEST_CODE_BASE = 100000;
+    private static final int MINUTES_PER_WEEK = 7 * 24 * 60;
+
+    // Extra sessions have a range keyed by date instead, so one never replaces a weekly
+    // class alarm at the same time; codes repeat after EXTRA_CODE_DAYS, well past the horizon
+    private static final int EXTRA_REQUEST_CODE_BASE = 200000;
+    private static final int EXTRA_CODE_DAYS = 16;
+
+    private HorizonScheduler() {
+    }
+
+    /**
+     * Arm every transition from now until the end of the horizon
+     */
+    public static void replan(Context context) {
+        CompiledSchedule schedule = currentSchedule(context);
+        if (schedule == null) {
+            Log.w(TAG, "No compiled schedule - nothing to plan");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        armRange(context, schedule, now, now + HORIZON_MS);
+    }
+
+    /**
+     * Arm only the transitions between the current horizon end and now + HORIZON_DAYS
+     */
+    public static void topUp(Context context) {
+        long now = System.currentTimeMillis();
+        long horizonEnd = getHorizonEnd(context);
+        if (horizonEnd <= now) {
+            // Horizon ran out (or was never planned) - start over from now
+            replan(context);
+            return;
+        }
+        if (horizonEnd - now >= TOP_UP_THRESHOLD_MS) {
+            Log.d(TAG, "Horizon still covers " + ((horizonEnd - now) / DAY_MS) + " days, no top-up needed");
+            return;
+        }
+        CompiledSchedule schedule = currentSchedule(context);
+        if (schedule == null) {
+            return;
+        }
+        armRange(context, schedule, horizonEnd, now + HORIZON_MS);
+    }
+
+    /**
+     * Arm just the next transition - used by the fast boot path before a full re-plan
+     */
+    public static void armNext(Context context, CompiledSchedule schedule) {
+        long now = System.currentTimeMillis();
+        List<CompiledSchedule.Transition> planned = plan(context, schedule, now, now + HORIZON_MS, null);
+        if (!planned.isEmpty()) {
+            arm(context, planned.get(0));
+        }
+    }
+
+    /**
+     * Move the armed horizon from one schedule to another, touching only the transitions
+     * that differ: old ones the new schedule lacks are cancelled, new ones are armed, and
+     * alarms both agree on stay as they are.
+     *
+     * @return how many alarms were cancelled or armed
+     */
+    public static int applyDiff(Context context, CompiledSchedule previous, CompiledSchedule updated) {
+        long now = System.currentTimeMillis();
+        long horizonEnd = getHorizonEnd(context);
+        if (horizonEnd <= now) {
+            // Nothing armed to diff against
+            replan(context);
+            return -1;
+        }
+        List<CompiledSchedule.Transition> before = plan(context, previous, now, horizonEnd, null);
+        List<CompiledSchedule.Transition> after = plan(context, updated, now, horizonEnd, null);
+        Set<Long> beforeKeys = new HashSet<>();
+        for (CompiledSchedule.Transition transition : before) {
+            beforeKeys.add(key(transition));
+        }
+        Set<Long> afterKeys = new HashSet<>();
+        for (CompiledSchedule.Transition transition : after) {
+            afterKeys.add(key(transition));
+        }
+
+        int changes = 0;
+        for (CompiledSchedule.Transition transition : before) {
+            if (!afterKeys.contains(key(transition))) {
+                cancel(context, transition, "timetable change");
+                changes++;
+            }
+        }
+        for (CompiledSchedule.Transition transition : after) {
+            if (!beforeKeys.contains(key(transition))) {
+                arm(context, transition);
+                changes++;
+            }
+        }
+        Log.d(TAG, "Applied timetable diff: " + changes + " alarms changed, "
+                + (after.size() + before.size() - changes) / 2 + " kept");
+        return changes;
+    }
+
+    /**
+     * Identifies one armed alarm: its time and whether it starts or ends a class
+     */
+    private static long key(CompiledSchedule.Transition transition) {
+        return transition.triggerAtMillis * 2 + (transition.isStart ? 1 : 0);
+    }
+
+    /**
+     * Cancel every alarm the horizon may have armed for the given schedule, in both
+     * weeks' request codes. Used when scheduling is turned off or rebuilt from scratch.
+     */
+    public static void cancelAll(Context context, CompiledSchedule schedule) {
+        ZoneId zone = ZoneId.systemDefault();
+        for (ExceptionCalendar.Entry entry : ExceptionCalendar.getInstance(context)
+                .getUpcoming(RuntimeStateStore.today() - 1)) {
+            for (CompiledSchedule.Transition transition : ExceptionCalendar.transitionsOf(entry, zone)) {
+                cancel(context, transition, "cancel all");
+            }
+        }
+        if (schedule == null) {
+            return;
+        }
+        for (CompiledSchedule.Interval interval : schedule.getIntervals()) {
+            for (int weekParity = 0; weekParity < 2; weekParity++) {
+                cancel(context, requestCode(weekParity, interval.day, interval.start, true), "TURN_ON_DND");
+                cancel(context, requestCode(weekParity, interval.day, interval.end, false), "TURN_OFF_DND");
+            }
+        }
+        Log.d(TAG, "Cancelled horizon alarms for " + schedule.getIntervals().size() + " intervals");
+    }
+
+    /**
+     * Cancel the alarms of an extra session that was removed from the exception calendar
+     */
+    public static void cancelExtra(Context context, ExceptionCalendar.Entry entry) {
+        for (CompiledSchedule.Transition transition : ExceptionCalendar.transitionsOf(entry, ZoneId.systemDefault())) {
+            cancel(context, transition, "extra session removed");
+        }
+    }
+
+    /**
+     * Request code of one armed occurrence: unique per minute of the week and start/end,
+     * and alternating with the week the occurrence falls in. Extra sessions are keyed by
+     * date and minute in a separate range.
+     */
+    static int requestCode(CompiledSchedule.Transition transition, ZoneId zone) {
+        long epochDay = Instant.ofEpochMilli(transition.triggerAtMillis).atZone(zone).toLocalDate().toEpochDay();
+        if (transition.isExtra) {
+            int dayIndex = (int) Math.floorMod(epochDay, (long) EXTRA_CODE_DAYS);
+            return EXTRA_REQUEST_CODE_BASE + (dayIndex * 24 * 60 + ScheduleClock.minuteOfDay(transition.time)) * 2
+                    + (transition.isStart ? 1 : 0);
+        }
+        // Epoch day 0 was a Thursday; shift so weeks start on Monday
+        int weekParity = (int) Math.floorMod(Math.floorDiv(epochDay + 3, 7), 2L);
+        return requestCode(weekParity, transition.day, transition.time, transition.isStart);
+    }
+
+    private static int requestCode(int weekParity, DayOfWeek day, LocalTime time, boolean isStart) {
+        int minuteOfWeek = (day.getValue() - 1) * 24 * 60 + ScheduleClock.minuteOfDay(time);
+        return REQUEST_CODE_BASE + (weekParity * MINUTES_PER_WEEK + minuteOfWeek) * 2 + (isStart ? 1 : 0);
+    }
+
+    /**
+     * Whether a delivery this long after its trigger time is later than the strategy it
+     * was armed with allows. Anything inside the window is on time.
+     */
+    public static boolean isLateDelivery(long lateByMillis, long windowMillis) {
+        // Subtract first: the window may be Long.MAX_VALUE
+        return lateByMillis - windowMillis > LATE_DELIVERY_GRACE_MS;
+    }
+
+    public static boolean needsTopUp(Context context) {
+        return getHorizonEnd(context) - System.currentTimeMillis() < TOP_UP_THRESHOLD_MS;
+    }
+
+    /**
+     * Forget the planned horizon, e.g. after a reboot cleared all alarms
+     */
+    public static void reset(Context context) {
+        prefs(context).edit().putLong("horizon_end_millis", 0).apply();
+    }
+
+    /**
+     * The published snapshot's schedule if there is one, else the saved file - never a parse
+     */
+    private static CompiledSchedule currentSchedule(Context context) {
+        ScheduleSnapshot snapshot = ScheduleSnapshot.peek();
+        return snapshot != null ? snapshot.getCompiledSchedule() : CompiledSchedule.load(context);
+    }
+
+    private static void armRange(Context context, CompiledSchedule schedule, long fromMillis, long toMillis) {
+        List<CompiledSchedule.Transition> skipped = new ArrayList<>();
+        List<CompiledSchedule.Transition> transitions = plan(context, schedule, fromMillis, toMillis, skipped);
+        // An exception or a new adjacent class may have come after these were armed
+        for (CompiledSchedule.Transition transition : skipped) {
+            cancel(context, transition, "exception");
+        }
+        for (CompiledSchedule.Transition transition : transitions) {
+            arm(context, transition);
+        }
+        prefs(context).edit().putLong("horizon_end_millis", toMillis).apply();
+        Log.d(TAG, "Armed " + transitions.size() + " transitions (" + skipped.size() + " skipped)"
+                + ", horizon now ends at " + new java.util.Date(toMillis));
+    }
+
+    /**
+     * Weekly transitions in (fromMillis, toMillis] with exceptions applied, sorted by time.
+     * Transitions dropped by an exception, and class ends handed straight to the next
+     * class, are added to skipped if it is not null.
+     */
+    private static List<CompiledSchedule.Transition> plan(Context context, CompiledSchedule schedule,
+                                                          long fromMillis, long toMillis,
+                                                          List<CompiledSchedule.Transition> skipped) {
+        ExceptionCalendar exceptions = ExceptionCalendar.getInstance(context);
+        ZoneId zone = ZoneId.systemDefault();
+        List<CompiledSchedule.Transition> result = new ArrayList<>();
+        for (CompiledSchedule.Transition transition : schedule.transitionsBetween(fromMillis, toMillis)) {
+            if (!exceptions.isSkipped(transition, zone)) {
+                result.add(transition);
+            } else if (skipped != null) {
+                skipped.add(transition);
+            }
+        }
+        List<CompiledSchedule.Transition> extras = exceptions.extraTransitions(fromMillis, toMillis, zone);
+        if (!extras.isEmpty()) {
+            result.addAll(extras);
+            Collections.sort(result, (a, b) -> Long.compare(a.triggerAtMillis, b.triggerAtMillis));
+        }
+        return dropHandOffs(result, skipped);
+    }
+
+    /**
+     * Remove class ends at the same instant as a class start. Back-to-back periods stay
+     * separate intervals, and the end is armed with a delivery window while the start is
+     * exact, so the end would arrive minutes into the next class and turn DND off there.
+     * DND simply stays on across the hand-off instead.
+     */
+    static List<CompiledSchedule.Transition> dropHandOffs(List<CompiledSchedule.Transition> transitions,
+                                                           List<CompiledSchedule.Transition> dropped) {
+        Set<Long> startTimes = new HashSet<>();
+        for (CompiledSchedule.Transition transition : transitions) {
+            if (transition.isStart) {
+                startTimes.add(transition.triggerAtMillis);
+            }
+        }
+        List<CompiledSchedule.Transition> result = new ArrayList<>(transitions.size());
+        for (CompiledSchedule.Transition transition : transitions) {
+            if (!transition.isStart && startTimes.contains(transition.triggerAtMillis)) {
+                if (dropped != null) {
+                    dropped.add(transition);
+                }
+            } else {
+                result.add(transition);
+            }
+        }
+        return result;
+    }
+
+    private static void cancel(Context context, CompiledSchedule.Transition transition, String reason) {
+        int requestCode = requestCode(transition, ZoneId.systemDefault());
+        if (cancel(context, requestCode, transition.getAction())) {
+            Log.d(TAG, "Cancelled " + transition.getAction() + " at " + new java.util.Date(transition.triggerAtMillis)
+                    + " (" + reason + ", RequestCode: " + requestCode + ")");
+        }
+    }
+
+    /**
+     * @return whether such an alarm was armed
+     */
+    private static boolean cancel(Context context, int requestCode, String action) {
+        Intent intent = new Intent(context, DNDReceiver.class);
+        intent.setAction(action);
+        PendingIntent pi = PendingIntent.getBroadcast(context, requestCode, intent,
+                PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE);
+        if (pi == null) {
+            return false;
+        }
+        AlarmSchedulers.forTransition(context, AlarmSchedulers.toleranceForAction(action)).cancel(pi);
+        pi.cancel();
+        return true;
+    }
+
+    private static void arm(Context context, CompiledSchedule.Transition transition) {
+        int requestCode = requestCode(transition, ZoneId.systemDefault());
+        String action = transition.getAction();
+
+        Intent intent = new Intent(context, DNDReceiver.class);
+        intent.setAction(action);
+        intent.putExtra("day_of_week", transition.getCalendarDayOfWeek());
+        intent.putExtra("hour", transition.getHour());
+        intent.putExtra("minute", transition.getMinute());
+        intent.putExtra("request_code", requestCode);
+        intent.putExtra(EXTRA_TRIGGER_AT, transition.triggerAtMillis);
+
+        // Class starts are critical, class ends can tolerate a short delay
+        AlarmScheduler scheduler = AlarmSchedulers.forTransition(context, AlarmSchedulers.toleranceForAction(action));
+        intent.putExtra(EXTRA_WINDOW, scheduler.getWindowMillis());
+
+        PendingIntent pi = PendingIntent.getBroadcast(
+                context,
+                requestCode,
+                intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        scheduler.schedule(transition.triggerAtMillis, pi);
+
+        Log.d(TAG, "Armed " + action + " at " + new java.util.Date(transition.triggerAtMillis) +
+                " via " + scheduler.getName() + " (RequestCode: " + requestCode + ")");
+    }
+
+    private static long getHorizonEnd(Context context) {
+        return prefs(context).getLong("horizon_end_millis", 0);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,83 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs HorizonScheduler outside of alarm deliveries.
+ *
+ * A daily periodic run tops the horizon up; one-off runs are requested by the
+ * receiver when the horizon has shrunk or a delivery arrived late.
+ */
+public class HorizonWorker extends Worker {
+
+    private static final String TAG = "HorizonWorker";
+    private static final String KEY_REPLAN = "replan";
+    private static final String PERIODIC_WORK_NAME = "horizon_top_up_daily";
+    private static final String ONE_TIME_WORK_NAME = "horizon_update";
+
+    public HorizonWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        if (!DNDManager.getInstance(context).isDndSchedulingEnabled()) {
+            Log.d(TAG, "DND scheduling disabled - skipping horizon update");
+            return Result.success();
+        }
+
+        if (getInputData().getBoolean(KEY_REPLAN, false)) {
+            HorizonScheduler.replan(context);
+        } else {
+            HorizonScheduler.topUp(context);
+        }
+        return Result.success();
+    }
+
+    /**
+     * Daily top-up, kept for as long as scheduling is enabled
+     */
+    public static void schedulePeriodic(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(HorizonWorker.class, 1, TimeUnit.DAYS)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    public static void cancelPeriodic(Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(PERIODIC_WORK_NAME);
+    }
+
+    public static void requestTopUp(Context context) {
+        enqueue(context, false);
+    }
+
+    public static void requestReplan(Context context) {
+        enqueue(context, true);
+    }
+
+    private static void enqueue(Context context, boolean replan) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(HorizonWorker.class)
+                .setInputData(new Data.Builder().putBoolean(KEY_REPLAN, replan).build())
+                .build();
+        // A pending re-plan covers a top-up, so only replace when asking for a re-plan
+        WorkManager.getInstance(context).enqueueUniqueWork(ONE_TIME_WORK_NAME,
+                replan ? ExistingWorkPolicy.REPLACE : ExistingWorkPolicy.KEEP, request);
+        Log.d(TAG, "Requested horizon " + (replan ? "re-plan" : "top-up"));
+    }
+}
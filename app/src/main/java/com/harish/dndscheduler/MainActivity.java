@@ -67,6 +67,8 @@ public class MainActivity extends AppCompatActivity {
     private android.app.Dialog dndAccessDialog;
     private boolean isRedirectingToSettings = false;
     private ActivityResultLauncher<Intent> loginActivityLauncher;
+    // Shown once per process, not on every recreate
+    private static boolean downgradeNoticeShown = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,9 +79,19 @@ public class MainActivity extends AppCompatActivity {
         
         // Check if this is first launch or if timetable data exists
         if (isFirstLaunchOrNoTimetableData()) {
-            // Redirect to LoginActivity directly
-            startActivity(new Intent(this, LoginActivity.class));
-            finish();
+            // A schedule restored from backup needs no login; it is imported off the main thread
+            StorageMigrator.restoreBackupInBackground(this, restored -> {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                if (restored || !ScheduleSnapshot.get(this).isEmpty()) {
+                    recreate();
+                } else {
+                    // Redirect to LoginActivity directly
+                    startActivity(new Intent(this, LoginActivity.class));
+                    finish();
+                }
+            });
             return;
         }
         
@@ -94,6 +106,7 @@ public class MainActivity extends AppCompatActivity {
 
         // Initialize UI state
         updateUI();
+        showDowngradeNoticeIfNeeded();
 
         // Start enhanced reliability features
         initializeReliabilityFeatures();
@@ -323,7 +336,9 @@ public class MainActivity extends AppCompatActivity {
      * Save Saturday schedule selection to preferences
      */
     private void saveSaturdaySelection(String selectedDay) {
-        prefs.edit().putString("saturday_follows", selectedDay).apply();
+        // Through DndSettings so the schedule snapshot is re-derived before we reschedule
+        DndSettings.getInstance(this).edit().putString(DndSettings.KEY_SATURDAY_FOLLOWS, selectedDay).apply();
+        ScheduleBundle.saveForBackup(this);
         Log.d("MainActivity", "Saved Saturday follows: " + selectedDay);
     }
 
@@ -331,37 +346,23 @@ public class MainActivity extends AppCompatActivity {
      * Get which day Saturday should follow
      */
     public String getSaturdayFollowsDay() {
-        return prefs.getString("saturday_follows", "None (Holiday)");
+        return DndSettings.getInstance(this).getSaturdayFollows();
     }
 
     /**
      * Static method for DNDManager to access Saturday settings
      */
     public static String getSaturdayFollowsDayStatic(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
-        return prefs.getString("saturday_follows", "None (Holiday)");
+        return DndSettings.getInstance(context).getSaturdayFollows();
     }
 
     /**
      * Setup advanced self-healing mechanisms that work without battery exemption
      */
     private void setupAdvancedSelfHealing() {
-        // Multiple periodic checks with different intervals to ensure at least one works
+        // Periodic alarm catches missed transitions; manual DND/ringer changes are
+        // reported immediately by DndChangeReceiver so there is no need to poll for them
         dndManager.schedulePeriodicCheck(); // 10 minutes
-        
-        // Additional shorter interval check (works even with battery optimization)
-        Handler handler = new Handler(Looper.getMainLooper());
-        Runnable selfHealCheck = new Runnable() {
-            @Override
-            public void run() {
-                if (dndManager.isDndSchedulingEnabled()) {
-                    dndManager.checkAndSetCurrentDndStatus(null);
-                }
-                // Reschedule for next check
-                handler.postDelayed(this, 3 * 60 * 1000); // 3 minutes
-            }
-        };
-        handler.postDelayed(selfHealCheck, 3 * 60 * 1000);
     }
 
     /**
@@ -410,10 +411,10 @@ public class MainActivity extends AppCompatActivity {
         }
 
         Log.d("DND_DEBUG", "=== Starting DND status check ===");
-        List<ClassTimeSlot> allSlots = TimetableStore.getClassTimeSlots(this);
-        Log.d("DND_DEBUG", "Retrieved " + allSlots.size() + " total slots for DND check");
+        ScheduleSnapshot snapshot = ScheduleSnapshot.get(this);
+        Log.d("DND_DEBUG", "Retrieved " + snapshot.getSlots().size() + " total slots for DND check");
         
-        List<ClassTimeSlot> classSlots = getTodaySlots(allSlots);
+        List<ClassTimeSlot> classSlots = snapshot.getTodaySlots();
         Log.d("DND_DEBUG", "Filtered to " + classSlots.size() + " slots for today's DND check");
 
         for (ClassTimeSlot slot : classSlots) {
@@ -429,7 +430,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         Log.d("DND_DEBUG", "=== End DND status check ===");
-        dndManager.checkAndSetCurrentDndStatus(classSlots);
+        dndManager.checkAndSetCurrentDndStatus();
         updateUI();
         updateTimetableStatus(classSlots);
     }
@@ -466,6 +467,7 @@ public class MainActivity extends AppCompatActivity {
         RadioButton radioSilent = dialogView.findViewById(R.id.radio_silent);
         Button btnCancel = dialogView.findViewById(R.id.btn_cancel);
         Button btnApply = dialogView.findViewById(R.id.btn_apply);
+        Button btnHistory = dialogView.findViewById(R.id.btn_history);
         
         // Store original states for cancel functionality
         final boolean originalSchedulingEnabled = dndManager.isDndSchedulingEnabled();
@@ -510,6 +512,11 @@ public class MainActivity extends AppCompatActivity {
         // Remove the listeners that immediately apply changes
         
         // Handle buttons
+        btnHistory.setOnClickListener(v -> {
+            dialog.dismiss();
+            startActivity(new Intent(this, SettingsActivity.class));
+        });
+        
         btnCancel.setOnClickListener(v -> {
             // Revert any changes (though nothing should be applied yet)
             dialog.dismiss();
@@ -545,6 +552,11 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        // The first captcha is fetched before the image view is laid out, so decode for its
+        // fixed size from the layout
+        int captchaWidth = getResources().getDimensionPixelSize(R.dimen.captcha_image_width);
+        int captchaHeight = getResources().getDimensionPixelSize(R.dimen.captcha_image_height);
+
         // Inflate custom dialog layout
         LayoutInflater inflater = getLayoutInflater();
         View dialogView = inflater.inflate(R.layout.dialog_captcha_refresh, null);
@@ -568,6 +580,7 @@ public class MainActivity extends AppCompatActivity {
             if (swipeRefreshLayout.isRefreshing()) {
                 swipeRefreshLayout.setRefreshing(false);
             }
+            showCaptcha(imgCaptcha, null);
         });
         
         // Apply window styling for modern look
@@ -580,7 +593,7 @@ public class MainActivity extends AppCompatActivity {
         CaptchaRefreshManager.CaptchaRefreshCallback callback = new CaptchaRefreshManager.CaptchaRefreshCallback() {
             @Override
             public void onCaptchaFetched(Bitmap captchaBitmap) {
-                imgCaptcha.setImageBitmap(captchaBitmap);
+                showCaptcha(imgCaptcha, captchaBitmap);
                 btnRefreshCaptcha.setEnabled(true);
                 btnSubmit.setEnabled(true);
                 // Reset button state in case it was in processing mode
@@ -589,14 +602,18 @@ public class MainActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onRefreshSuccess() {
+            public void onRefreshSuccess(boolean changed) {
                 // Reset button state
                 btnSubmit.setText("Submit");
                 btnSubmit.setAlpha(1.0f);
                 swipeRefreshLayout.setRefreshing(false);
-                Toast.makeText(MainActivity.this, "Timetable refreshed successfully", Toast.LENGTH_SHORT).show();
                 dialog.dismiss();
-                updateUI(); // Refresh the UI with new data
+                if (changed) {
+                    Toast.makeText(MainActivity.this, "Timetable refreshed successfully", Toast.LENGTH_SHORT).show();
+                    updateUI(); // Refresh the UI with new data
+                } else {
+                    Toast.makeText(MainActivity.this, "Timetable is already up to date", Toast.LENGTH_SHORT).show();
+                }
             }
 
             @Override
@@ -639,7 +656,7 @@ public class MainActivity extends AppCompatActivity {
         Runnable fetchCaptcha = () -> {
             btnRefreshCaptcha.setEnabled(false);
             btnSubmit.setEnabled(false);
-            captchaRefreshManager.fetchCaptcha(callback);
+            captchaRefreshManager.fetchCaptcha(captchaWidth, captchaHeight, callback);
         };
         
         // Handle refresh captcha button
@@ -678,15 +695,28 @@ public class MainActivity extends AppCompatActivity {
         fetchCaptcha.run();
     }
     
+    /**
+     * Show a captcha and hand the one it replaces back to the decoder for reuse
+     */
+    private void showCaptcha(ImageView imgCaptcha, Bitmap bitmap) {
+        Bitmap previous = imgCaptcha.getTag() instanceof Bitmap ? (Bitmap) imgCaptcha.getTag() : null;
+        imgCaptcha.setTag(bitmap);
+        imgCaptcha.setImageBitmap(bitmap);
+        if (previous != null && previous != bitmap) {
+            captchaRefreshManager.releaseCaptcha(previous);
+        }
+    }
+
     private void fetchCaptchaForDialog(ImageView imgCaptcha, ImageButton btnRefreshCaptcha, 
                                      Button btnSubmit) {
         btnRefreshCaptcha.setEnabled(false);
         btnSubmit.setEnabled(false);
         
-        captchaRefreshManager.fetchCaptcha(new CaptchaRefreshManager.CaptchaRefreshCallback() {
+        captchaRefreshManager.fetchCaptcha(imgCaptcha.getWidth(), imgCaptcha.getHeight(),
+                new CaptchaRefreshManager.CaptchaRefreshCallback() {
             @Override
             public void onCaptchaFetched(Bitmap captchaBitmap) {
-                imgCaptcha.setImageBitmap(captchaBitmap);
+                showCaptcha(imgCaptcha, captchaBitmap);
                 btnRefreshCaptcha.setEnabled(true);
                 btnSubmit.setEnabled(true);
                 // Reset button state in case it was in processing mode
@@ -695,7 +725,7 @@ public class MainActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onRefreshSuccess() {
+            public void onRefreshSuccess(boolean changed) {
                 // This won't be called for captcha-only fetch
             }
 
@@ -743,8 +773,33 @@ public class MainActivity extends AppCompatActivity {
             swipeRefreshLayout.setRefreshing(true);
         }
         
-        // Try captcha-only refresh first, fall back to full login if needed
-        showCaptchaRefreshDialog();
+        // Try the saved session first, then captcha-only refresh, then full login
+        captchaRefreshManager.refreshWithSavedSession(new CaptchaRefreshManager.SessionRefreshCallback() {
+            @Override
+            public void onRefreshSuccess(boolean changed) {
+                if (isDestroyed()) return;
+                swipeRefreshLayout.setRefreshing(false);
+                if (changed) {
+                    Toast.makeText(MainActivity.this, "Timetable refreshed successfully", Toast.LENGTH_SHORT).show();
+                    updateUI();
+                } else {
+                    Toast.makeText(MainActivity.this, "Timetable is already up to date", Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            @Override
+            public void onCaptchaRequired() {
+                if (isDestroyed()) return;
+                showCaptchaRefreshDialog();
+            }
+
+            @Override
+            public void onRefreshError(String error) {
+                if (isDestroyed()) return;
+                swipeRefreshLayout.setRefreshing(false);
+                Toast.makeText(MainActivity.this, error, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     private void updateUI() {
@@ -781,8 +836,9 @@ public class MainActivity extends AppCompatActivity {
 
         // Add detailed logging for UI data retrieval
         Log.d("UI_DEBUG", "=== Starting UI data retrieval ===");
-        List<ClassTimeSlot> allSlots = TimetableStore.getClassTimeSlots(this);
-        Log.d("UI_DEBUG", "Retrieved " + allSlots.size() + " total slots from TimetableStore");
+        ScheduleSnapshot snapshot = ScheduleSnapshot.get(this);
+        List<ClassTimeSlot> allSlots = snapshot.getSlots();
+        Log.d("UI_DEBUG", "Retrieved " + allSlots.size() + " total slots from schedule snapshot");
         
         // Log all retrieved slots with their times
         for (int i = 0; i < allSlots.size(); i++) {
@@ -800,7 +856,7 @@ public class MainActivity extends AppCompatActivity {
             Log.d("UI_DEBUG", "Slot " + i + ": " + dayName + " " + timeRange + " - " + slot.getSubject());
         }
         
-        List<ClassTimeSlot> todaySlots = getTodaySlots(allSlots);
+        List<ClassTimeSlot> todaySlots = snapshot.getTodaySlots();
         Log.d("UI_DEBUG", "Filtered to " + todaySlots.size() + " slots for today's display");
         Log.d("UI_DEBUG", "=== End UI data retrieval ===");
         
@@ -848,6 +904,23 @@ public class MainActivity extends AppCompatActivity {
         return true; // Always available on older versions
     }
 
+    /**
+     * Data written by a newer version is kept read-only; say so once per process
+     */
+    private void showDowngradeNoticeIfNeeded() {
+        if (!StorageMigrator.isDowngradeDetected() || downgradeNoticeShown) {
+            return;
+        }
+        downgradeNoticeShown = true;
+        new androidx.appcompat.app.AlertDialog.Builder(this)
+                .setTitle("Older App Version")
+                .setMessage("Your data was saved by a newer version of this app.\n\n" +
+                           "To keep it safe, this version will not save timetable, exception " +
+                           "or backup changes. Reinstall the latest version to make changes again.")
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
     private void showExactAlarmRationale() {
         new androidx.appcompat.app.AlertDialog.Builder(this)
                 .setTitle("Precise Scheduling Required")
@@ -855,7 +928,7 @@ public class MainActivity extends AppCompatActivity {
                            "• Turn DND on/off at exact class times\n" +
                            "• Ensure reliable silent mode during lectures\n" +
                            "• Sync with your university timetable\n\n" +
-                           "Without this, DND might activate late or miss your classes.")
+                           "Without this, Android may start DND up to 10 minutes after a class begins.")
                 .setPositiveButton("Grant Permission", (dialog, which) -> {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                         Intent intent = new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM);
@@ -892,6 +965,11 @@ public class MainActivity extends AppCompatActivity {
             prefs.edit().putBoolean("first_launch", false).apply();
         }
         
+        // A schedule imported from a bundle needs no login
+        if (!ScheduleSnapshot.get(this).isEmpty()) {
+            return false;
+        }
+        
         return isFirstLaunch || timetableHtml.isEmpty();
     }
 
@@ -904,8 +982,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void updateNextClassInfo() {
         // Next class info display removed from UI for cleaner design
-        List<ClassTimeSlot> allSlots = TimetableStore.getClassTimeSlots(this);
-        List<ClassTimeSlot> classSlots = getTodaySlots(allSlots);
+        List<ClassTimeSlot> classSlots = ScheduleSnapshot.get(this).getTodaySlots();
 
         if (classSlots.isEmpty()) {
             Log.d("MainActivity", "No timetable data available");
@@ -1028,69 +1105,6 @@ public class MainActivity extends AppCompatActivity {
         return nm.isNotificationPolicyAccessGranted();
     }
 
-    private List<ClassTimeSlot> getTodaySlots(List<ClassTimeSlot> allSlots) {
-        List<ClassTimeSlot> todaySlots = new ArrayList<>();
-        Calendar today = Calendar.getInstance();
-        int todayDay = today.get(Calendar.DAY_OF_WEEK);
-
-        Log.d("TodaySlots", "Today is: " + getDayNameFromCalendar(todayDay) + " (" + todayDay + ")");
-        Log.d("TodaySlots", "Total slots to check: " + allSlots.size());
-
-        // Handle Saturday compensation
-        if (todayDay == Calendar.SATURDAY) {
-            String saturdayFollows = getSaturdayFollowsDay();
-            if (!saturdayFollows.equals("None (Holiday)")) {
-                int targetDay = getDayOfWeekFromString(saturdayFollows);
-                if (targetDay != -1) {
-                    // Show the classes from the day Saturday is following
-                    for (ClassTimeSlot slot : allSlots) {
-                        Calendar slotCal = Calendar.getInstance();
-                        slotCal.setTimeInMillis(slot.getStartMillis());
-                        if (slotCal.get(Calendar.DAY_OF_WEEK) == targetDay) {
-                            todaySlots.add(slot);
-                        }
-                    }
-                    Log.d("TodaySlots", "Saturday following " + saturdayFollows + " - Found " + todaySlots.size() + " slots");
-                    return todaySlots;
-                }
-            }
-            // If Saturday is set to "None (Holiday)", return empty list
-            Log.d("TodaySlots", "Saturday is a holiday - no classes");
-            return todaySlots;
-        }
-
-        // Normal day processing
-        for (ClassTimeSlot slot : allSlots) {
-            Calendar slotCal = Calendar.getInstance();
-            slotCal.setTimeInMillis(slot.getStartMillis());
-            int slotDay = slotCal.get(Calendar.DAY_OF_WEEK);
-            
-            Log.d("TodaySlots", "Checking slot: " + slot.getSubject() + " on day " + getDayNameFromCalendar(slotDay) + " (" + slotDay + ")");
-            
-            if (slotDay == todayDay) {
-                todaySlots.add(slot);
-                Log.d("TodaySlots", "Added slot: " + slot.getSubject() + " at " + new java.text.SimpleDateFormat("HH:mm", java.util.Locale.getDefault()).format(new java.util.Date(slot.getStartMillis())));
-            }
-        }
-
-        Log.d("TodaySlots", "Found " + todaySlots.size() + " slots for today");
-        return todaySlots;
-    }
-
-    /**
-     * Convert day name to Calendar day constant
-     */
-    private int getDayOfWeekFromString(String dayName) {
-        switch (dayName) {
-            case "Monday": return Calendar.MONDAY;
-            case "Tuesday": return Calendar.TUESDAY;
-            case "Wednesday": return Calendar.WEDNESDAY;
-            case "Thursday": return Calendar.THURSDAY;
-            case "Friday": return Calendar.FRIDAY;
-            default: return -1; // Invalid day
-        }
-    }
-
     /**
      * Convert Calendar day constant to day name
      */
@@ -1110,9 +1124,14 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        if (updateHandler == null) {
+            // Still waiting in onCreate for a backup import to decide between main screen and login
+            return;
+        }
         updateHandler.post(updateRunnable);
         checkCurrentDndStatus();
         updateUI(); // Refresh UI state when returning to activity
+        captchaRefreshManager.warmUp();
         
         // Clean up dialog state when returning from settings
         if (isRedirectingToSettings) {
@@ -1127,6 +1146,9 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        if (updateHandler == null) {
+            return;
+        }
         updateHandler.removeCallbacks(updateRunnable);
         
         // Dismiss DND access dialog only if we're redirecting to settings
@@ -1295,8 +1317,5 @@ public class MainActivity extends AppCompatActivity {
         if (updateHandler != null) {
             updateHandler.removeCallbacks(updateRunnable);
         }
-        if (captchaRefreshManager != null) {
-            captchaRefreshManager.shutdown();
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+/**
+ * Cookie jar for the portal that survives process death, so a refresh can reuse the
+ * session of the last login instead of solving a new captcha.
+ *
+ * Cookies are kept in memory and written to files/portal_cookies.bin (tmp + rename)
+ * whenever the portal changes them. Expired cookies are dropped on load, on lookup and
+ * when new ones arrive. The portal's session cookie has no expiry of its own; it is
+ * kept for at most {@link #SESSION_COOKIE_MAX_AGE_MS}, and whether the server still
+ * honours it is found out by using it (see PortalClient).
+ */
+final class PersistentCookieJar implements CookieJar {
+
+    private static final String TAG = "PersistentCookieJar";
+    private static final String FILE_NAME = "portal_cookies.bin";
+    private static final int MAGIC = 0x444E4443; // "DNDC"
+    private static final int VERSION = 1;
+
+    // Upper bound for cookies the server sent without an expiry
+    private static final long SESSION_COOKIE_MAX_AGE_MS = 12 * 60 * 60 * 1000L;
+
+    private final File file;
+    private final List<Cookie> cookies = new ArrayList<>();
+
+    PersistentCookieJar(Context context) {
+        this.file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    @Override
+    public synchronized void saveFromResponse(HttpUrl url, List<Cookie> received) {
+        if (received.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Cookie cookie : received) {
+            // Replace the same cookie (name, domain, path); an expired one deletes it
+            removeMatching(cookie);
+            Cookie kept = cookie.persistent() ? cookie : capSessionCookie(cookie, now);
+            if (kept.expiresAt() > now) {
+                cookies.add(kept);
+            }
+        }
+        removeExpired(now);
+        save();
+    }
+
+    @Override
+    public synchronized List<Cookie> loadForRequest(HttpUrl url) {
+        long now = System.currentTimeMillis();
+        List<Cookie> matching = new ArrayList<>();
+        boolean expired = false;
+        for (Iterator<Cookie> it = cookies.iterator(); it.hasNext(); ) {
+            Cookie cookie = it.next();
+            if (cookie.expiresAt() <= now) {
+                it.remove();
+                expired = true;
+            } else if (cookie.matches(url)) {
+                matching.add(cookie);
+            }
+        }
+        if (expired) {
+            save();
+        }
+        return matching;
+    }
+
+    /**
+     * Whether there are live cookies that could carry a session
+     */
+    synchronized boolean hasCookies() {
+        removeExpired(System.currentTimeMillis());
+        return !cookies.isEmpty();
+    }
+
+    /**
+     * Forget the session, in memory and on disk
+     */
+    synchronized void clear() {
+        cookies.clear();
+        file.delete();
+        Log.d(TAG, "Cookies cleared");
+    }
+
+    private void removeMatching(Cookie cookie) {
+        for (Iterator<Cookie> it = cookies.iterator(); it.hasNext(); ) {
+            Cookie existing = it.next();
+            if (existing.name().equals(cookie.name())
+                    && existing.domain().equals(cookie.domain())
+                    && existing.path().equals(cookie.path())) {
+                it.remove();
+            }
+        }
+    }
+
+    private void removeExpired(long now) {
+        cookies.removeIf(cookie -> cookie.expiresAt() <= now);
+    }
+
+    private static Cookie capSessionCookie(Cookie cookie, long now) {
+        return rebuild(cookie.name(), cookie.value(), now + SESSION_COOKIE_MAX_AGE_MS, cookie.domain(),
+                cookie.path(), cookie.secure(), cookie.httpOnly(), cookie.hostOnly());
+    }
+
+    private static Cookie rebuild(String name, String value, long expiresAt, String domain, String path,
+                                  boolean secure, boolean httpOnly, boolean hostOnly) {
+        Cookie.Builder builder = new Cookie.Builder()
+                .name(name)
+                .value(value)
+                .expiresAt(expiresAt)
+                .path(path);
+        if (hostOnly) {
+            builder.hostOnlyDomain(domain);
+        } else {
+            builder.domain(domain);
+        }
+        if (secure) {
+            builder.secure();
+        }
+        if (httpOnly) {
+            builder.httpOnly();
+        }
+        return builder.build();
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cookies.size());
+            for (Cookie cookie : cookies) {
+                out.writeUTF(cookie.name());
+                out.writeUTF(cookie.value());
+                out.writeLong(cookie.expiresAt());
+                out.writeUTF(cookie.domain());
+                out.writeUTF(cookie.path());
+                out.writeBoolean(cookie.secure());
+                out.writeBoolean(cookie.httpOnly());
+                out.writeBoolean(cookie.hostOnly());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write cookies", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace cookie file");
+            tmp.delete();
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Cookie file has unknown format, ignoring");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Cookie cookie = rebuild(in.readUTF(), in.readUTF(), in.readLong(), in.readUTF(), in.readUTF(),
+                        in.readBoolean(), in.readBoolean(), in.readBoolean());
+                if (cookie.expiresAt() > now) {
+                    cookies.add(cookie);
+                }
+            }
+            Log.d(TAG, "Loaded " + cookies.size() + " live cookies");
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read cookies", e);
+            cookies.clear();
+        }
+    }
+}
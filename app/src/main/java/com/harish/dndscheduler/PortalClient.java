@@ -0,0 +1,749 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * The one client for the university portal, owned by DNDApplication.
+ *
+ * LoginActivity and CaptchaRefreshManager used to each build their own OkHttpClient,
+ * cookie manager and thread pool and carry their own copy of the login flow. Now both
+ * go through this class, so the connection pool, dispatcher and TLS sessions are
+ * shared and stay warm across screens, and the flow exists once:
+ * 1. {@link #fetchCaptcha} starts a fresh session (login page, captcha init, image)
+ * 2. {@link #login} posts the credentials with the solved captcha, follows the
+ *    redirect to home, fetches the timetable and stores it
+ * Cookies persist across restarts, so {@link #refreshWithSavedSession} can often skip
+ * both steps and fetch the timetable right away.
+ *
+ * Both flows are non-blocking pipelines (see {@link Flow}) with an overall deadline.
+ * Callbacks are delivered on the main thread.
+ */
+public final class PortalClient {
+
+    private static final String TAG = "PortalClient";
+    private static final String BASE_URL = "https://webstream.sastra.edu/sastrapwi/";
+    private static final String ORIGIN = "https://webstream.sastra.edu";
+    private static final String USER_AGENT = "Mozilla/5.0 (Linux; Android 13) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/112.0.0.0 Mobile Safari/537.36";
+    private static final String KEY_TIMETABLE_ETAG = "timetable_etag";
+    private static final String KEY_TIMETABLE_LAST_MODIFIED = "timetable_last_modified";
+    private static final String KEY_TIMETABLE_HASH = "timetable_hash";
+    private static final String ACCEPT_HTML = "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8";
+
+    // Bounds for one request and for whole flows (all attempts share the flow deadline)
+    private static final long STAGE_TIMEOUT_MS = 20_000;
+    private static final long CAPTCHA_DEADLINE_MS = 45_000;
+    private static final long LOGIN_DEADLINE_MS = 60_000;
+    private static final long SESSION_DEADLINE_MS = 30_000;
+    // Well inside OkHttp's 5 minute keep-alive for idle pooled connections
+    private static final long PREWARM_INTERVAL_MS = 60_000;
+    // How long a captcha handed out is assumed to be on screen, waiting for its login
+    private static final long CAPTCHA_PENDING_MS = 10 * 60_000;
+
+    public interface CaptchaCallback {
+        void onCaptchaFetched(Bitmap captchaBitmap);
+        void onError(String error);
+    }
+
+    public interface LoginCallback {
+        /**
+         * Logged in and the timetable checked
+         *
+         * @param changed false if the portal's timetable matched the stored one, which
+         *                was then left alone
+         */
+        void onSuccess(boolean changed);
+
+        /**
+         * The portal refused the login (wrong credentials or captcha)
+         */
+        void onLoginRejected();
+
+        void onError(String error);
+    }
+
+    public interface SessionCallback {
+        void onSuccess(boolean changed);
+
+        /**
+         * The saved session is gone; a captcha login is needed
+         */
+        void onSessionExpired();
+
+        void onError(String error);
+    }
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final PersistentCookieJar cookieJar;
+    private final OkHttpClient client;
+    // Only runs short timers; all network work happens on OkHttp's dispatcher
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final RequestPacer pacer;
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private final CaptchaDecoder captchaDecoder = new CaptchaDecoder();
+    private Flow activeFlow;
+    private volatile long lastPrewarmAt;
+    // Pauses that produced the current captcha; the login decides whether they were enough
+    private volatile Set<RequestPacer.Pause> captchaPauses = EnumSet.noneOf(RequestPacer.Pause.class);
+    // When the current captcha was handed out (elapsedRealtime), 0 once a login used it
+    private volatile long captchaIssuedAt;
+    // Bumped whenever the cookie jar gets a new session or is cleared
+    private final AtomicInteger sessionGeneration = new AtomicInteger();
+
+    PortalClient(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
+        this.pacer = new RequestPacer(this.context);
+
+        this.cookieJar = new PersistentCookieJar(this.context);
+
+        this.client = new OkHttpClient.Builder()
+                .cookieJar(cookieJar)
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .followRedirects(false) // Handle redirects manually
+                .followSslRedirects(false)
+                .build();
+    }
+
+    public static PortalClient getInstance(Context context) {
+        return ((DNDApplication) context.getApplicationContext()).getPortalClient();
+    }
+
+    /**
+     * Start a fresh portal session and load its captcha
+     */
+    public void fetchCaptcha(CaptchaCallback callback) {
+        fetchCaptcha(0, 0, callback);
+    }
+
+    /**
+     * Same, with the captcha decoded no larger than needed for a view of this size
+     */
+    public void fetchCaptcha(int targetWidth, int targetHeight, CaptchaCallback callback) {
+        Flow flow = startFlow("captcha", CAPTCHA_DEADLINE_MS,
+                () -> callback.onError("Failed to load captcha"));
+
+        // The portal wants a fresh session for every login
+        captchaIssuedAt = 0;
+        sessionGeneration.incrementAndGet();
+        cookieJar.clear();
+        retryPolicy.startSession();
+
+        // Step 1: GET login page to initialize session
+        Request loginPageRequest = new Request.Builder()
+                .url(BASE_URL)
+                .header("User-Agent", USER_AGENT)
+                .build();
+        flow.call(loginPageRequest, loginPage -> {
+            if (!loginPage.isSuccessful()) {
+                throw new IOException("Login page fetch failed: " + loginPage.code());
+            }
+
+            // Step 2: Trigger captcha generation, only the session side effect matters
+            Request captchaInitRequest = new Request.Builder()
+                    .url(BASE_URL + "stickyImg")
+                    .header("User-Agent", USER_AGENT)
+                    .header("Referer", BASE_URL)
+                    .build();
+            flow.call(captchaInitRequest, captchaInit -> flow.pause(RequestPacer.Pause.CAPTCHA, () -> {
+
+                // Step 3: Fetch captcha image
+                Request captchaRequest = new Request.Builder()
+                        .url(BASE_URL + "stickyImg?ms=" + System.currentTimeMillis())
+                        .header("User-Agent", USER_AGENT)
+                        .header("Accept", "image/webp,image/apng,image/*,*/*;q=0.8")
+                        .header("Referer", BASE_URL)
+                        .build();
+                flow.call(captchaRequest, captchaResponse -> {
+                    Log.d(TAG, "Captcha response code: " + captchaResponse.code());
+                    if (!captchaResponse.isSuccessful() || captchaResponse.body() == null) {
+                        throw new IOException("Captcha fetch failed: " + captchaResponse.code());
+                    }
+                    Bitmap bitmap;
+                    try {
+                        bitmap = captchaDecoder.decode(captchaResponse.body().source(), targetWidth, targetHeight);
+                    } catch (IOException e) {
+                        // Usually the session was not ready for the image yet
+                        Log.w(TAG, "Captcha image rejected: " + e.getMessage());
+                        flow.reject(() -> callback.onError("Failed to load captcha"));
+                        return;
+                    }
+                    Log.d(TAG, "Captcha loaded: " + bitmap.getWidth() + "x" + bitmap.getHeight());
+                    // Session is now ready for login - cookies must be kept from here on
+                    captchaPauses = flow.pausesUsed();
+                    captchaIssuedAt = SystemClock.elapsedRealtime();
+                    flow.complete(() -> callback.onCaptchaFetched(bitmap));
+                });
+            }));
+        });
+    }
+
+    /**
+     * Hand back a captcha bitmap that its view no longer shows, so the next captcha can
+     * be decoded into it. Nothing may draw the bitmap afterwards.
+     */
+    public void releaseCaptcha(Bitmap bitmap) {
+        captchaDecoder.release(bitmap);
+    }
+
+    /**
+     * Open a pooled connection to the portal (DNS, TCP, TLS) without touching the
+     * session, so the next real request starts on a warm connection
+     */
+    public void prewarm() {
+        long now = SystemClock.elapsedRealtime();
+        if (isBusy() || (lastPrewarmAt != 0 && now - lastPrewarmAt < PREWARM_INTERVAL_MS)) {
+            return; // the connection is warm already
+        }
+        lastPrewarmAt = now;
+        Request request = new Request.Builder()
+                .url(BASE_URL)
+                .head()
+                .header("User-Agent", USER_AGENT)
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.d(TAG, "Prewarm failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                Log.d(TAG, "Portal connection prewarmed");
+            }
+        });
+    }
+
+    /**
+     * Refresh the timetable on the session of the last login, without a captcha. The
+     * timetable request is the session probe: a live session gets the table (or a 304),
+     * a dead one is redirected to or served the login page, which is reported as
+     * {@link SessionCallback#onSessionExpired} so the caller can fall back to the
+     * captcha flow. No stored cookies means no request at all.
+     */
+    public void refreshWithSavedSession(SessionCallback callback) {
+        String username = prefs.getString("last_username", "");
+        String password = prefs.getString("last_password", "");
+        if (!cookieJar.hasCookies() || username.isEmpty() || password.isEmpty()) {
+            mainHandler.post(callback::onSessionExpired);
+            return;
+        }
+        Flow flow = startFlow("session refresh", SESSION_DEADLINE_MS,
+                () -> callback.onError("Refresh failed. Please check your internet connection and try again."));
+        retryPolicy.startSession();
+        fetchAndStoreTimetable(flow, username, password, callback::onSuccess, callback::onSessionExpired);
+    }
+
+    /**
+     * Whether a flow is running, or a captcha was handed out and its login has not come
+     * yet: the cookies are then the session the user is solving the captcha for.
+     * Background work should not touch the session while busy.
+     */
+    public synchronized boolean isBusy() {
+        if (activeFlow != null && !activeFlow.isFinished()) {
+            return true;
+        }
+        long issuedAt = captchaIssuedAt;
+        return issuedAt != 0 && SystemClock.elapsedRealtime() - issuedAt < CAPTCHA_PENDING_MS;
+    }
+
+    /**
+     * Changes whenever the saved session is replaced or cleared; pass it to
+     * {@link #clearSession(int)} to drop only the session that was probed
+     */
+    public int getSessionGeneration() {
+        return sessionGeneration.get();
+    }
+
+    /**
+     * Forget the portal session, e.g. when the stored credentials are cleared
+     */
+    public synchronized void clearSession() {
+        captchaIssuedAt = 0;
+        sessionGeneration.incrementAndGet();
+        cookieJar.clear();
+    }
+
+    /**
+     * Forget the portal session only if it is still the one of the given generation and
+     * nobody is using it, e.g. after a background probe found it expired
+     *
+     * @return whether the session was cleared
+     */
+    public synchronized boolean clearSession(int generation) {
+        if (sessionGeneration.get() != generation || isBusy()) {
+            Log.d(TAG, "Session changed since the probe, keeping it");
+            return false;
+        }
+        clearSession();
+        return true;
+    }
+
+    /**
+     * Log in on the session opened by {@link #fetchCaptcha}, then fetch and store the
+     * timetable. Credentials are stored for later captcha-only refreshes.
+     */
+    public void login(String regNo, String password, String captcha, LoginCallback callback) {
+        Flow flow = startFlow("login", LOGIN_DEADLINE_MS,
+                () -> callback.onError("Login failed. Please check your internet connection and try again."));
+        flow.inherit(captchaPauses);
+        // The captcha is used now; the running login flow keeps the client busy from here
+        captchaIssuedAt = 0;
+
+        FormBody formBody = new FormBody.Builder()
+                .add("txtRegNumber", regNo)
+                .add("txtPwd", password)
+                .add("answer", captcha)
+                .add("txtPA", "1")
+                .build();
+        Request loginRequest = browserRequest(BASE_URL)
+                .post(formBody)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Origin", ORIGIN)
+                .header("Referer", BASE_URL)
+                .build();
+
+        flow.pause(RequestPacer.Pause.PRE_LOGIN, () -> flow.call(loginRequest, loginResponse -> {
+            if (loginResponse.code() == 302) {
+                String location = loginResponse.header("Location");
+                Log.d(TAG, "Redirect location: " + location);
+                if (location == null || !location.contains("home.jsp")) {
+                    flow.reject(callback::onLoginRejected);
+                    return;
+                }
+                // Handle relative URLs
+                String homeUrl = location.startsWith("http") ? location : BASE_URL + location;
+                flow.call(browserRequest(homeUrl).build(), homeResponse -> {
+                    Log.d(TAG, "Home page response: " + homeResponse.code());
+                    if (!homeResponse.isSuccessful()) {
+                        throw new IOException("Home page fetch failed: " + homeResponse.code());
+                    }
+                    flow.pause(RequestPacer.Pause.HUMAN, () -> fetchAndStoreTimetable(flow, regNo, password, callback::onSuccess, null));
+                });
+            } else {
+                String responseBody = loginResponse.body() != null ? loginResponse.body().string() : "";
+                if (!isLoginSuccessful(loginResponse, responseBody)) {
+                    flow.reject(callback::onLoginRejected);
+                    return;
+                }
+                fetchAndStoreTimetable(flow, regNo, password, callback::onSuccess, null);
+            }
+        }));
+    }
+
+    /**
+     * Fetch the timetable page and store its table, unless it is the one already stored.
+     * Validators from the last fetch are sent when the portal gave any; otherwise the
+     * table's CRC decides. An unchanged timetable is not written, parsed or rescheduled.
+     */
+    private void fetchAndStoreTimetable(Flow flow, String username, String password,
+                                        Consumer<Boolean> onDone, Runnable onNoSession) {
+        Request.Builder builder = browserRequest(BASE_URL + "academy/frmStudentTimetable.jsp")
+                .header("Referer", BASE_URL + "usermanager/home.jsp");
+        // Only short-cut when the stored timetable is also the one running (no rollback)
+        TimetableHistory history = TimetableHistory.getInstance(context);
+        boolean haveTimetable = prefs.contains("timetable_html") && !history.isEmpty()
+                && history.getActiveVersion() == history.getLatestVersion();
+        if (haveTimetable) {
+            String etag = prefs.getString(KEY_TIMETABLE_ETAG, null);
+            String lastModified = prefs.getString(KEY_TIMETABLE_LAST_MODIFIED, null);
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+        }
+        long startedAt = SystemClock.elapsedRealtime();
+
+        flow.call(builder.build(), response -> {
+            Log.d(TAG, "Timetable response: " + response.code());
+            if (response.code() == 304 && haveTimetable) {
+                Log.d(TAG, "Timetable not modified (validators), done in "
+                        + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+                finishUnchanged(flow, username, password, onDone);
+                return;
+            }
+            if (response.isRedirect() && onNoSession != null) {
+                // The portal sends a dead session back to the login page
+                Log.d(TAG, "Session expired, redirected to " + response.header("Location"));
+                flow.complete(onNoSession);
+                return;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Timetable fetch failed: " + response.code());
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Timetable response has no body");
+            }
+            // Stream just the <table cellspacing="1" ...> ... </table> out of the page
+            MediaType contentType = body.contentType();
+            Charset charset = contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+            String timetableData = TimetableExtractor.extractTable(body.source(), charset);
+            if (timetableData == null) {
+                if (onNoSession != null) {
+                    // Served the login page instead of the timetable
+                    Log.d(TAG, "Session expired, no timetable in page");
+                    flow.complete(onNoSession);
+                    return;
+                }
+                throw new IOException("Timetable table not found in page");
+            }
+            Log.d(TAG, "Timetable table extracted, length: " + timetableData.length());
+
+            long hash = checksum(timetableData);
+            if (haveTimetable && prefs.getLong(KEY_TIMETABLE_HASH, 0) == hash) {
+                Log.d(TAG, "Timetable unchanged (hash), done in "
+                        + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+                rememberValidators(response);
+                finishUnchanged(flow, username, password, onDone);
+                return;
+            }
+
+            SharedPreferences.Editor editor = prefs.edit()
+                    .putString("timetable_html", timetableData)
+                    .putLong(KEY_TIMETABLE_HASH, hash)
+                    .putLong("timetable_fetch_time", System.currentTimeMillis())
+                    .putString("last_username", username)
+                    .putString("last_password", password);
+            putValidators(editor, response);
+            editor.apply();
+            // Parsed straight from the extracted table, no round trip through prefs
+            ScheduleSnapshot.record(context, TimetableStore.parseSlots(timetableData));
+            Log.d(TAG, "Timetable changed and stored in " + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+            flow.accept(() -> onDone.accept(true));
+        });
+    }
+
+    private void finishUnchanged(Flow flow, String username, String password, Consumer<Boolean> onDone) {
+        // Only note when it was checked, and the credentials if a full login changed them
+        SharedPreferences.Editor editor = prefs.edit()
+                .putLong("timetable_fetch_time", System.currentTimeMillis());
+        if (!username.equals(prefs.getString("last_username", ""))
+                || !password.equals(prefs.getString("last_password", ""))) {
+            editor.putString("last_username", username)
+                    .putString("last_password", password);
+        }
+        editor.apply();
+        flow.accept(() -> onDone.accept(false));
+    }
+
+    private void rememberValidators(Response response) {
+        SharedPreferences.Editor editor = prefs.edit();
+        putValidators(editor, response);
+        editor.apply();
+    }
+
+    private static void putValidators(SharedPreferences.Editor editor, Response response) {
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        if (etag != null) {
+            editor.putString(KEY_TIMETABLE_ETAG, etag);
+        } else {
+            editor.remove(KEY_TIMETABLE_ETAG);
+        }
+        if (lastModified != null) {
+            editor.putString(KEY_TIMETABLE_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(KEY_TIMETABLE_LAST_MODIFIED);
+        }
+    }
+
+    private static long checksum(String timetableData) {
+        CRC32 crc = new CRC32();
+        crc.update(timetableData.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * Start a flow, abandoning the previous one: the portal has a single session per
+     * client, so an older captcha or login can only get in the way
+     */
+    private synchronized Flow startFlow(String name, long deadlineMs, Runnable onFailure) {
+        if (activeFlow != null) {
+            activeFlow.abandon();
+        }
+        activeFlow = new Flow(name, deadlineMs, onFailure);
+        return activeFlow;
+    }
+
+    private static Request.Builder browserRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", ACCEPT_HTML)
+                .header("Accept-Language", "en-US,en;q=0.5")
+                .header("DNT", "1")
+                .header("Connection", "keep-alive")
+                .header("Upgrade-Insecure-Requests", "1");
+    }
+
+    private static boolean isLoginSuccessful(Response response, String body) {
+        boolean hasHomeJsp = body.contains("home.jsp");
+        boolean hasSuccessIndicator = body.contains("welcome") || body.contains("Welcome") || body.contains("dashboard");
+        boolean isRedirectToHome = response.isRedirect() && response.header("Location") != null
+                && response.header("Location").contains("home.jsp");
+
+        String lower = body.toLowerCase(Locale.ROOT);
+        boolean hasError = lower.contains("invalid") || lower.contains("error") || lower.contains("incorrect");
+
+        return (hasHomeJsp || hasSuccessIndicator || isRedirectToHome) && !hasError;
+    }
+
+    /**
+     * Continues a flow with the response of one request. The response is closed
+     * when this returns; throwing fails the whole flow.
+     */
+    private interface Stage {
+        void onResponse(Response response) throws IOException;
+    }
+
+    /**
+     * One run of a staged flow. Requests are enqueued, pauses are scheduled, and
+     * failed requests are re-enqueued after a backoff, so no thread ever waits. Each
+     * request is bounded by the stage timeout and by what is left of the overall
+     * deadline; when the deadline passes, the request in flight is cancelled and the
+     * flow fails. Exactly one outcome is delivered, on the main thread.
+     */
+    private final class Flow {
+        private final String name;
+        private final long deadlineAt;
+        private final Runnable onFailure;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final Set<RequestPacer.Pause> pausesUsed =
+                Collections.synchronizedSet(EnumSet.noneOf(RequestPacer.Pause.class));
+        private final ScheduledFuture<?> watchdog;
+        private volatile Call inFlight;
+        // Set before we cancel a call ourselves. OkHttp also cancels a call whose timeout
+        // expired, so Call.isCanceled() can't tell a stage timeout from an abandon.
+        private volatile boolean cancelledByUs;
+
+        Flow(String name, long deadlineMs, Runnable onFailure) {
+            this.name = name;
+            this.deadlineAt = SystemClock.elapsedRealtime() + deadlineMs;
+            this.onFailure = onFailure;
+            this.watchdog = scheduler.schedule(
+                    () -> fail(new IOException(name + " deadline of " + deadlineMs + "ms exceeded")),
+                    deadlineMs, TimeUnit.MILLISECONDS);
+        }
+
+        void call(Request request, Stage stage) {
+            call(request, stage, 1, 0);
+        }
+
+        private void call(Request request, Stage stage, int attempt, long lastBackoffMs) {
+            if (finished.get()) {
+                return;
+            }
+            long remaining = deadlineAt - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                fail(new IOException(name + " deadline exceeded"));
+                return;
+            }
+            if (!retryPolicy.allowRequest()) {
+                fail(new IOException("Portal unavailable, failing fast while the circuit is open"));
+                return;
+            }
+
+            Call call = client.newCall(request);
+            call.timeout().timeout(Math.min(STAGE_TIMEOUT_MS, remaining), TimeUnit.MILLISECONDS);
+            inFlight = call;
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (cancelledByUs) {
+                        // Our own deadline or a newer flow, says nothing about the portal
+                        retryPolicy.onCancelled();
+                        return;
+                    }
+                    // Includes a stage timeout: the portal did not answer in time
+                    retryPolicy.onFailure();
+                    if (finished.get()) {
+                        return;
+                    }
+                    Log.w(TAG, name + ": attempt " + attempt + " failed: " + e.getMessage());
+                    retryOrFail(request, stage, attempt, lastBackoffMs, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response r = response) {
+                        int code = r.code();
+                        if (RetryPolicy.isServerTrouble(code)) {
+                            retryPolicy.onFailure();
+                        } else {
+                            retryPolicy.onSuccess();
+                        }
+                        if (finished.get()) {
+                            return;
+                        }
+                        if (code == 429 || code == 503) {
+                            pacer.onThrottled();
+                        }
+                        if (RetryPolicy.isServerTrouble(code)) {
+                            Log.w(TAG, name + ": attempt " + attempt + " got " + code);
+                            // Closed by the try block before any retry goes out
+                            retryOrFail(request, stage, attempt, lastBackoffMs,
+                                    new IOException("Portal answered " + code));
+                            return;
+                        }
+                        stage.onResponse(r);
+                    } catch (IOException | RuntimeException e) {
+                        fail(e);
+                    }
+                }
+            });
+        }
+
+        private void retryOrFail(Request request, Stage stage, int attempt, long lastBackoffMs, IOException cause) {
+            if (!retryPolicy.shouldRetry(request, attempt)) {
+                fail(cause);
+                return;
+            }
+            long backoffMs = RetryPolicy.nextBackoffMs(lastBackoffMs);
+            Log.d(TAG, name + ": retrying " + request.method() + " in " + backoffMs + "ms");
+            after(backoffMs, () -> call(request, stage, attempt + 1, backoffMs));
+        }
+
+        /**
+         * Run the next step after the learned gap for this pause
+         */
+        void pause(RequestPacer.Pause pause, Runnable next) {
+            pausesUsed.add(pause);
+            after(pacer.gapMs(pause), next);
+        }
+
+        /**
+         * Count pauses of an earlier flow on the same session as this flow's own
+         */
+        void inherit(Set<RequestPacer.Pause> pauses) {
+            pausesUsed.addAll(pauses);
+        }
+
+        Set<RequestPacer.Pause> pausesUsed() {
+            Set<RequestPacer.Pause> copy = EnumSet.noneOf(RequestPacer.Pause.class);
+            synchronized (pausesUsed) {
+                copy.addAll(pausesUsed);
+            }
+            return copy;
+        }
+
+        /**
+         * Run the next step after a delay, unless that would overrun the deadline
+         */
+        void after(long delayMs, Runnable next) {
+            if (finished.get()) {
+                return;
+            }
+            if (SystemClock.elapsedRealtime() + delayMs >= deadlineAt) {
+                fail(new IOException(name + " deadline exceeded"));
+                return;
+            }
+            scheduler.schedule(() -> {
+                if (!finished.get()) {
+                    next.run();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * The portal took everything: the pauses used were long enough
+         */
+        void accept(Runnable outcome) {
+            if (!finished.get()) {
+                pacer.onAccepted(pausesUsed());
+            }
+            complete(outcome);
+        }
+
+        /**
+         * The portal refused the captcha or session: the pauses used may be too short
+         */
+        void reject(Runnable outcome) {
+            if (!finished.get()) {
+                pacer.onRejected(pausesUsed());
+            }
+            complete(outcome);
+        }
+
+        boolean isFinished() {
+            return finished.get();
+        }
+
+        void complete(Runnable outcome) {
+            if (finish()) {
+                mainHandler.post(outcome);
+            }
+        }
+
+        void fail(Exception e) {
+            if (finish()) {
+                cancelInFlight();
+                Log.e(TAG, name + " failed", e);
+                mainHandler.post(onFailure);
+            }
+        }
+
+        /**
+         * Stop without reporting anything; a newer flow has taken over
+         */
+        void abandon() {
+            if (finish()) {
+                cancelInFlight();
+                Log.d(TAG, name + " abandoned");
+            }
+        }
+
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            watchdog.cancel(false);
+            return true;
+        }
+
+        private void cancelInFlight() {
+            cancelledByUs = true;
+            Call call = inFlight;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+}
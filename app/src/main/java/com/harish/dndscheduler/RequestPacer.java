@@ -0,0 +1,115 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Learns how short the pauses between portal requests can be.
+ *
+ * The portal flows pause after the captcha init, before the login POST and before the
+ * timetable fetch, because the portal misbehaves when hit too fast. Instead of fixed
+ * waits, each pause has a learned gap: every flow that completes cleanly shrinks the
+ * gaps it used a little, and a throttle (429/503) or a rejected captcha or session
+ * grows them again, much faster than they shrink. The gaps settle just above what the
+ * portal tolerates and are kept in dnd_prefs, so the next start begins there.
+ *
+ * A rejected login can also just be a mistyped captcha, so rejects back off gently and
+ * only throttling doubles the gaps.
+ */
+final class RequestPacer {
+
+    private static final String TAG = "RequestPacer";
+
+    enum Pause {
+        CAPTCHA("pacer_captcha_gap_ms", 300, 50, 2000),
+        PRE_LOGIN("pacer_pre_login_gap_ms", 200, 0, 1500),
+        HUMAN("pacer_human_gap_ms", 500, 100, 3000);
+
+        final String key;
+        final int initialMs;
+        final int floorMs;
+        final int ceilingMs;
+
+        Pause(String key, int initialMs, int floorMs, int ceilingMs) {
+            this.key = key;
+            this.initialMs = initialMs;
+            this.floorMs = floorMs;
+            this.ceilingMs = ceilingMs;
+        }
+    }
+
+    // Shrink slowly on success, grow quickly on trouble
+    private static final double SUCCESS_FACTOR = 0.9;
+    private static final double REJECT_FACTOR = 1.5;
+    private static final double THROTTLE_FACTOR = 2.0;
+    private static final int GROW_STEP_MS = 100;
+
+    private final SharedPreferences prefs;
+    private final int[] gaps = new int[Pause.values().length];
+
+    RequestPacer(Context context) {
+        this.prefs = context.getSharedPreferences(DndSettings.PREFS_NAME, Context.MODE_PRIVATE);
+        for (Pause pause : Pause.values()) {
+            gaps[pause.ordinal()] = clamp(pause, prefs.getInt(pause.key, pause.initialMs));
+        }
+    }
+
+    synchronized long gapMs(Pause pause) {
+        return gaps[pause.ordinal()];
+    }
+
+    /**
+     * A flow went through cleanly with these pauses
+     */
+    synchronized void onAccepted(Set<Pause> used) {
+        for (Pause pause : used) {
+            set(pause, (int) (gaps[pause.ordinal()] * SUCCESS_FACTOR));
+        }
+        save(used);
+    }
+
+    /**
+     * The portal refused the captcha or lost the session after these pauses
+     */
+    synchronized void onRejected(Set<Pause> used) {
+        for (Pause pause : used) {
+            set(pause, (int) (gaps[pause.ordinal()] * REJECT_FACTOR) + GROW_STEP_MS / 2);
+        }
+        save(used);
+    }
+
+    /**
+     * The portal answered 429 or 503: slow everything down
+     */
+    synchronized void onThrottled() {
+        Set<Pause> all = EnumSet.allOf(Pause.class);
+        for (Pause pause : all) {
+            set(pause, (int) (gaps[pause.ordinal()] * THROTTLE_FACTOR) + GROW_STEP_MS);
+        }
+        save(all);
+    }
+
+    private void set(Pause pause, int gapMs) {
+        gaps[pause.ordinal()] = clamp(pause, gapMs);
+    }
+
+    private void save(Set<Pause> changed) {
+        SharedPreferences.Editor editor = prefs.edit();
+        StringBuilder summary = new StringBuilder();
+        for (Pause pause : changed) {
+            int gap = gaps[pause.ordinal()];
+            editor.putInt(pause.key, gap);
+            summary.append(pause).append('=').append(gap).append("ms ");
+        }
+        editor.apply();
+        Log.d(TAG, "Gaps now " + summary.toString().trim());
+    }
+
+    private static int clamp(Pause pause, int gapMs) {
+        return Math.max(pause.floorMs, Math.min(pause.ceilingMs, gapMs));
+    }
+}
@@ -0,0 +1,166 @@
+package com.harish.dndscheduler;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+import okhttp3.Request;
+
+/**
+ * When the portal flows may retry a request, and how long to wait first.
+ *
+ * - Only idempotent requests (GET/HEAD) are retried; the credential POST never is,
+ *   since a retried login can burn the captcha or count as a second failed attempt.
+ * - Backoff uses decorrelated jitter: each wait is random between the base and three
+ *   times the previous wait, capped, so retries from different starts don't line up.
+ * - Each portal session (one captcha + login) gets a small retry budget, so a flaky
+ *   network cannot turn one login into dozens of requests.
+ * - A circuit breaker counts consecutive failures (network errors, timeouts, 429 and
+ *   5xx). Past the threshold it opens and requests fail at once until the cooldown
+ *   ends; then a single trial request decides whether to close it or stay open for
+ *   longer. Only calls the app cancelled itself are neutral.
+ */
+final class RetryPolicy {
+
+    private static final String TAG = "RetryPolicy";
+
+    static final int MAX_ATTEMPTS = 3;
+    private static final int RETRIES_PER_SESSION = 4;
+
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 8_000;
+
+    private static final int FAILURE_THRESHOLD = 4;
+    private static final long INITIAL_COOLDOWN_MS = 30_000;
+    private static final long MAX_COOLDOWN_MS = 5 * 60_000;
+
+    private enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long cooldownMs = INITIAL_COOLDOWN_MS;
+    private long openedAt;
+    private boolean trialInFlight;
+    private int retriesLeft = RETRIES_PER_SESSION;
+
+    private final LongSupplier clock;
+
+    RetryPolicy() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock monotonic milliseconds, replaceable in tests
+     */
+    RetryPolicy(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * A new portal session starts: refill the retry budget
+     */
+    synchronized void startSession() {
+        retriesLeft = RETRIES_PER_SESSION;
+    }
+
+    /**
+     * Whether a request may go out now. While half-open only one trial is let through.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case OPEN:
+                if (clock.getAsLong() - openedAt < cooldownMs) {
+                    return false;
+                }
+                state = CircuitState.HALF_OPEN;
+                trialInFlight = false;
+                Log.d(TAG, "Circuit half-open, allowing a trial request");
+                // fall through
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state != CircuitState.CLOSED) {
+            Log.d(TAG, "Portal reachable again, circuit closed");
+        }
+        state = CircuitState.CLOSED;
+        consecutiveFailures = 0;
+        cooldownMs = INITIAL_COOLDOWN_MS;
+        trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == CircuitState.HALF_OPEN) {
+            // The trial failed: stay away for longer
+            cooldownMs = Math.min(MAX_COOLDOWN_MS, cooldownMs * 2);
+            open();
+        } else if (state == CircuitState.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    /**
+     * A request was cancelled by the app itself (abandoned flow or deadline), which says
+     * nothing about the portal; if it was the trial, let another one through. A call that
+     * timed out is a failure, not a cancellation.
+     */
+    synchronized void onCancelled() {
+        trialInFlight = false;
+    }
+
+    private void open() {
+        state = CircuitState.OPEN;
+        openedAt = clock.getAsLong();
+        trialInFlight = false;
+        Log.w(TAG, "Circuit open after " + consecutiveFailures + " failures, cooling down for " + cooldownMs + "ms");
+    }
+
+    /**
+     * Whether a failed attempt of this request should be retried. Takes one unit of
+     * the session budget when it says yes.
+     */
+    synchronized boolean shouldRetry(Request request, int attempt) {
+        if (attempt >= MAX_ATTEMPTS || !isIdempotent(request) || state == CircuitState.OPEN) {
+            return false;
+        }
+        if (retriesLeft <= 0) {
+            Log.w(TAG, "Retry budget for this session used up");
+            return false;
+        }
+        retriesLeft--;
+        return true;
+    }
+
+    /**
+     * Decorrelated jitter: random in [base, previous * 3], capped
+     *
+     * @param previousMs the last wait, or 0 before the first retry
+     */
+    static long nextBackoffMs(long previousMs) {
+        long upper = Math.min(MAX_BACKOFF_MS, Math.max(BASE_BACKOFF_MS, previousMs) * 3);
+        return ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MS, upper + 1);
+    }
+
+    static boolean isIdempotent(Request request) {
+        String method = request.method();
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * Responses that count against the portal's health and may be retried
+     */
+    static boolean isServerTrouble(int code) {
+        return code == 429 || code >= 500;
+    }
+}
@@ -0,0 +1,95 @@
+package com.harish.dndscheduler;
+
+/**
+ * State that changes on every DND transition: whether the app currently owns the
+ * mode, a pending manual override, and the original ringer mode / DND filter saved
+ * before the first class of the day. Dates are stored as epoch days.
+ *
+ * Instances are immutable; changes are made on a Builder and persisted as a whole
+ * by RuntimeStateStore. journalSeq is the last TransitionJournal entry this state
+ * includes, which is what marks that entry as committed.
+ */
+public final class RuntimeState {
+
+    public static final int NO_DAY = -1;
+
+    public final boolean currentlyOn;
+    public final boolean setByApp;
+    public final boolean userOverride;
+
+    public final boolean ringerModeStored;
+    public final int originalRingerMode;
+    public final int ringerModeEpochDay;
+
+    public final boolean dndStateStored;
+    public final int originalDndFilter;
+    public final int dndStateEpochDay;
+
+    public final int journalSeq;
+    public final long updatedAtMillis;
+
+    private RuntimeState(Builder b) {
+        this.currentlyOn = b.currentlyOn;
+        this.setByApp = b.setByApp;
+        this.userOverride = b.userOverride;
+        this.ringerModeStored = b.ringerModeStored;
+        this.originalRingerMode = b.originalRingerMode;
+        this.ringerModeEpochDay = b.ringerModeEpochDay;
+        this.dndStateStored = b.dndStateStored;
+        this.originalDndFilter = b.originalDndFilter;
+        this.dndStateEpochDay = b.dndStateEpochDay;
+        this.journalSeq = b.journalSeq;
+        this.updatedAtMillis = b.updatedAtMillis;
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public static final class Builder {
+        private boolean currentlyOn;
+        private boolean setByApp;
+        private boolean userOverride;
+        private boolean ringerModeStored;
+        private int originalRingerMode;
+        private int ringerModeEpochDay = NO_DAY;
+        private boolean dndStateStored;
+        private int originalDndFilter;
+        private int dndStateEpochDay = NO_DAY;
+        private int journalSeq;
+        private long updatedAtMillis;
+
+        public Builder() {
+        }
+
+        private Builder(RuntimeState s) {
+            currentlyOn = s.currentlyOn;
+            setByApp = s.setByApp;
+            userOverride = s.userOverride;
+            ringerModeStored = s.ringerModeStored;
+            originalRingerMode = s.originalRingerMode;
+            ringerModeEpochDay = s.ringerModeEpochDay;
+            dndStateStored = s.dndStateStored;
+            originalDndFilter = s.originalDndFilter;
+            dndStateEpochDay = s.dndStateEpochDay;
+            journalSeq = s.journalSeq;
+            updatedAtMillis = s.updatedAtMillis;
+        }
+
+        public Builder setCurrentlyOn(boolean value) { currentlyOn = value; return this; }
+        public Builder setSetByApp(boolean value) { setByApp = value; return this; }
+        public Builder setUserOverride(boolean value) { userOverride = value; return this; }
+        public Builder setRingerModeStored(boolean value) { ringerModeStored = value; return this; }
+        public Builder setOriginalRingerMode(int value) { originalRingerMode = value; return this; }
+        public Builder setRingerModeEpochDay(int value) { ringerModeEpochDay = value; return this; }
+        public Builder setDndStateStored(boolean value) { dndStateStored = value; return this; }
+        public Builder setOriginalDndFilter(int value) { originalDndFilter = value; return this; }
+        public Builder setDndStateEpochDay(int value) { dndStateEpochDay = value; return this; }
+        public Builder setJournalSeq(int value) { journalSeq = value; return this; }
+        public Builder setUpdatedAtMillis(long value) { updatedAtMillis = value; return this; }
+
+        public RuntimeState build() {
+            return new RuntimeState(this);
+        }
+    }
+}
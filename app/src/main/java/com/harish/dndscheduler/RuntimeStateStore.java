@@ -0,0 +1,243 @@
+package com.harish.dndscheduler;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Persists RuntimeState to a small fixed-layout binary file instead of dnd_prefs.
+ *
+ * Layout (little endian, 40 bytes):
+ * <pre>
+ *  0  int   magic "DNDR"
+ *  4  short version
+ *  6  short flags
+ *  8  int   original ringer mode
+ * 12  int   ringer mode epoch day
+ * 16  int   original DND filter
+ * 20  int   DND state epoch day
+ * 24  long  updated at (epoch millis)
+ * 32  int   last committed journal sequence
+ * 36  int   CRC32 of bytes 0..35
+ * </pre>
+ * Writes go to a temp file that is forced to disk and renamed over the old one, so
+ * a crash leaves either the old or the new state, never a torn one.
+ *
+ * Until StorageMigrator has run, a missing file is served from the legacy dnd_prefs
+ * keys; the migrator then persists that state and removes the keys.
+ */
+public final class RuntimeStateStore {
+
+    private static final String TAG = "RuntimeStateStore";
+    private static final String FILE_NAME = "runtime_state.bin";
+
+    private static final int MAGIC = 0x444E4452; // "DNDR"
+    private static final short VERSION = 1;
+    private static final int RECORD_SIZE = 40;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    private static final int FLAG_CURRENTLY_ON = 1;
+    private static final int FLAG_SET_BY_APP = 1 << 1;
+    private static final int FLAG_USER_OVERRIDE = 1 << 2;
+    private static final int FLAG_RINGER_MODE_STORED = 1 << 3;
+    private static final int FLAG_DND_STATE_STORED = 1 << 4;
+
+    // Keys this file replaced in dnd_prefs, migrated once by StorageMigrator
+    private static final String[] LEGACY_KEYS = {
+            "dnd_currently_on", "dnd_set_by_app", "dnd_user_override",
+            "original_ringer_mode", "ringer_mode_stored", "original_mode_date",
+            "original_dnd_filter", "dnd_state_stored", "original_dnd_date"
+    };
+
+    private static RuntimeStateStore instance;
+
+    private final File file;
+    private final File tmpFile;
+    private volatile RuntimeState state;
+
+    private RuntimeStateStore(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.file = new File(appContext.getFilesDir(), FILE_NAME);
+        this.tmpFile = new File(appContext.getFilesDir(), FILE_NAME + ".tmp");
+
+        RuntimeState loaded = read();
+        if (loaded == null) {
+            // Not migrated yet - serve the legacy values until StorageMigrator persists them
+            loaded = readLegacyPrefs(appContext);
+        }
+        this.state = loaded;
+    }
+
+    public static synchronized RuntimeStateStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new RuntimeStateStore(context);
+        }
+        return instance;
+    }
+
+    public RuntimeState get() {
+        return state;
+    }
+
+    /**
+     * Replace the whole state with one small write
+     */
+    public synchronized boolean put(RuntimeState newState) {
+        RuntimeState stamped = newState.toBuilder().setUpdatedAtMillis(System.currentTimeMillis()).build();
+        if (!write(stamped)) {
+            return false;
+        }
+        state = stamped;
+        return true;
+    }
+
+    /**
+     * Persist the current state and drop the legacy dnd_prefs keys. Safe to repeat;
+     * the keys are only removed once the state is on disk.
+     */
+    synchronized boolean migrateLegacyKeys(Context context) {
+        if (!file.exists() && !write(state)) {
+            return false;
+        }
+        clearLegacyKeys(context);
+        return true;
+    }
+
+    public static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    private RuntimeState read() {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the record is complete or EOF
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read runtime state", e);
+            return null;
+        }
+        if (buffer.hasRemaining()) {
+            Log.w(TAG, "Runtime state file truncated, ignoring");
+            return null;
+        }
+        buffer.flip();
+
+        if (buffer.getInt(CRC_OFFSET) != crc(buffer)) {
+            Log.w(TAG, "Runtime state checksum mismatch, ignoring");
+            return null;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            Log.w(TAG, "Runtime state has unknown format, ignoring");
+            return null;
+        }
+
+        int flags = buffer.getShort(6);
+        return new RuntimeState.Builder()
+                .setCurrentlyOn((flags & FLAG_CURRENTLY_ON) != 0)
+                .setSetByApp((flags & FLAG_SET_BY_APP) != 0)
+                .setUserOverride((flags & FLAG_USER_OVERRIDE) != 0)
+                .setRingerModeStored((flags & FLAG_RINGER_MODE_STORED) != 0)
+                .setDndStateStored((flags & FLAG_DND_STATE_STORED) != 0)
+                .setOriginalRingerMode(buffer.getInt(8))
+                .setRingerModeEpochDay(buffer.getInt(12))
+                .setOriginalDndFilter(buffer.getInt(16))
+                .setDndStateEpochDay(buffer.getInt(20))
+                .setUpdatedAtMillis(buffer.getLong(24))
+                .setJournalSeq(buffer.getInt(32))
+                .build();
+    }
+
+    private boolean write(RuntimeState s) {
+        int flags = 0;
+        if (s.currentlyOn) flags |= FLAG_CURRENTLY_ON;
+        if (s.setByApp) flags |= FLAG_SET_BY_APP;
+        if (s.userOverride) flags |= FLAG_USER_OVERRIDE;
+        if (s.ringerModeStored) flags |= FLAG_RINGER_MODE_STORED;
+        if (s.dndStateStored) flags |= FLAG_DND_STATE_STORED;
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) flags);
+        buffer.putInt(8, s.originalRingerMode);
+        buffer.putInt(12, s.ringerModeEpochDay);
+        buffer.putInt(16, s.originalDndFilter);
+        buffer.putInt(20, s.dndStateEpochDay);
+        buffer.putLong(24, s.updatedAtMillis);
+        buffer.putInt(32, s.journalSeq);
+        buffer.putInt(CRC_OFFSET, crc(buffer));
+
+        try (FileChannel channel = new FileOutputStream(tmpFile).getChannel()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write runtime state", e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(file)) {
+            Log.e(TAG, "Failed to replace runtime state file");
+            tmpFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CRC_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Pick up the values older versions kept in dnd_prefs
+     */
+    private static RuntimeState readLegacyPrefs(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(DndSettings.PREFS_NAME, Context.MODE_PRIVATE);
+        // Old date stamps were locale-formatted strings; only "today" still matters
+        String todayString = DateFormat.getDateInstance().format(new Date());
+        int today = today();
+
+        RuntimeState migrated = new RuntimeState.Builder()
+                .setCurrentlyOn(prefs.getBoolean("dnd_currently_on", false))
+                .setSetByApp(prefs.getBoolean("dnd_set_by_app", false))
+                .setUserOverride(prefs.getBoolean("dnd_user_override", false))
+                .setRingerModeStored(prefs.getBoolean("ringer_mode_stored", false))
+                .setOriginalRingerMode(prefs.getInt("original_ringer_mode", AudioManager.RINGER_MODE_NORMAL))
+                .setRingerModeEpochDay(todayString.equals(prefs.getString("original_mode_date", "")) ? today : RuntimeState.NO_DAY)
+                .setDndStateStored(prefs.getBoolean("dnd_state_stored", false))
+                .setOriginalDndFilter(prefs.getInt("original_dnd_filter", NotificationManager.INTERRUPTION_FILTER_ALL))
+                .setDndStateEpochDay(todayString.equals(prefs.getString("original_dnd_date", "")) ? today : RuntimeState.NO_DAY)
+                .build();
+        Log.d(TAG, "Loaded runtime state from legacy dnd_prefs keys");
+        return migrated;
+    }
+
+    private static void clearLegacyKeys(Context context) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(DndSettings.PREFS_NAME, Context.MODE_PRIVATE).edit();
+        for (String key : LEGACY_KEYS) {
+            editor.remove(key);
+        }
+        editor.apply();
+    }
+}
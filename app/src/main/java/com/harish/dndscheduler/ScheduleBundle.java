@@ -0,0 +1,187 @@
+package com.harish.dndscheduler;
+
+import android.app.backup.BackupManager;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Everything needed to run the schedule on another phone, without logging in: the
+ * active timetable (as parsed slots, so no HTML), Saturday-follows, the silent mode
+ * type and whether scheduling is enabled.
+ *
+ * The same bytes are used for manual export/import through the Storage Access
+ * Framework and for auto-backup: a copy is kept in files/schedule_bundle.bin, which is
+ * the only file the backup rules include. On a restored install it is imported on
+ * first start.
+ *
+ * Layout (big endian, streamed): magic "DNDB", format version, exported-at millis,
+ * scheduling enabled, silent mode type, Saturday-follows, slots (see TimetableHistory),
+ * then a CRC32 of everything before it.
+ */
+public final class ScheduleBundle {
+
+    private static final String TAG = "ScheduleBundle";
+    static final String BACKUP_FILE_NAME = "schedule_bundle.bin";
+    public static final String MIME_TYPE = "application/octet-stream";
+
+    private static final int MAGIC = 0x444E4442; // "DNDB"
+    private static final int FORMAT_VERSION = 1;
+
+    public final long exportedAtMillis;
+    public final boolean schedulingEnabled;
+    public final String silentModeType;
+    public final String saturdayFollows;
+    public final List<ClassTimeSlot> slots;
+
+    ScheduleBundle(long exportedAtMillis, boolean schedulingEnabled, String silentModeType,
+                           String saturdayFollows, List<ClassTimeSlot> slots) {
+        this.exportedAtMillis = exportedAtMillis;
+        this.schedulingEnabled = schedulingEnabled;
+        this.silentModeType = silentModeType;
+        this.saturdayFollows = saturdayFollows;
+        this.slots = slots;
+    }
+
+    /**
+     * Bundle of the schedule as it is running right now
+     */
+    public static ScheduleBundle capture(Context context) {
+        DndSettings.Snapshot settings = DndSettings.getInstance(context).getSnapshot();
+        return new ScheduleBundle(System.currentTimeMillis(), settings.schedulingEnabled,
+                settings.silentModeType, settings.saturdayFollows,
+                ScheduleSnapshot.get(context).getSlots());
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(exportedAtMillis);
+        out.writeBoolean(schedulingEnabled);
+        out.writeUTF(silentModeType);
+        out.writeUTF(saturdayFollows);
+        TimetableHistory.writeSlots(out, slots);
+        out.flush();
+        // Checksum covers everything written so far; write it past the checked stream
+        new DataOutputStream(stream).writeInt((int) checked.getChecksum().getValue());
+        stream.flush();
+    }
+
+    /**
+     * @throws IOException if the stream is not a bundle, is from a newer version, or is damaged
+     */
+    public static ScheduleBundle readFrom(InputStream stream) throws IOException {
+        try {
+            return decode(stream);
+        } catch (RuntimeException e) {
+            // Garbage that got past the field checks; callers only handle IOException
+            throw new IOException("Schedule bundle is damaged", e);
+        }
+    }
+
+    private static ScheduleBundle decode(InputStream stream) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a schedule bundle");
+        }
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported schedule bundle version " + formatVersion);
+        }
+        long exportedAt = in.readLong();
+        boolean enabled = in.readBoolean();
+        String silentModeType = in.readUTF();
+        String saturdayFollows = in.readUTF();
+        List<ClassTimeSlot> slots = TimetableHistory.readSlots(in);
+
+        int expected = (int) checked.getChecksum().getValue();
+        if (new DataInputStream(checked).readInt() != expected) {
+            throw new IOException("Schedule bundle is damaged");
+        }
+        return new ScheduleBundle(exportedAt, enabled, silentModeType, saturdayFollows, slots);
+    }
+
+    /**
+     * Make this bundle the running schedule and arm it. No fetch, no parse.
+     */
+    public void apply(Context context) {
+        DndSettings.getInstance(context).edit()
+                .putString(DndSettings.KEY_SILENT_MODE_TYPE, silentModeType)
+                .putString(DndSettings.KEY_SATURDAY_FOLLOWS, saturdayFollows)
+                .putBoolean(DndSettings.KEY_SCHEDULING_ENABLED, schedulingEnabled)
+                .apply();
+        ScheduleSnapshot.record(context, slots);
+
+        DNDManager dndManager = DNDManager.getInstance(context);
+        if (schedulingEnabled && !slots.isEmpty()) {
+            dndManager.scheduleDndForClasses();
+            dndManager.forceImmediateDndStatusCheck();
+        }
+        Log.d(TAG, "Imported schedule with " + slots.size() + " slots");
+    }
+
+    /**
+     * Refresh the copy kept for auto-backup and let the backup service know
+     */
+    public static void saveForBackup(Context context) {
+        if (!StorageMigrator.canWrite(BACKUP_FILE_NAME)) {
+            return;
+        }
+        File file = new File(context.getFilesDir(), BACKUP_FILE_NAME);
+        File tmp = new File(context.getFilesDir(), BACKUP_FILE_NAME + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            capture(context).writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write backup bundle", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace backup bundle");
+            tmp.delete();
+            return;
+        }
+        new BackupManager(context).dataChanged();
+    }
+
+    /**
+     * Import the backed-up bundle if this install was restored from a backup and has
+     * no timetable of its own yet
+     *
+     * @return true if a bundle was imported
+     */
+    public static synchronized boolean restoreFromBackupIfNeeded(Context context) {
+        if (!TimetableHistory.getInstance(context).isEmpty()) {
+            return false;
+        }
+        File file = new File(context.getFilesDir(), BACKUP_FILE_NAME);
+        if (!file.exists()) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            readFrom(in).apply(context);
+            Log.d(TAG, "Restored schedule from backup bundle");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Backup bundle unreadable, ignoring", e);
+            return false;
+        }
+    }
+}
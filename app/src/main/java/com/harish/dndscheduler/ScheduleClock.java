@@ -0,0 +1,77 @@
+package com.harish.dndscheduler;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Calendar;
+
+/**
+ * Turns weekly wall-clock times (day of week + local time) into concrete instants.
+ *
+ * Everything is resolved against the zone passed in at the moment it is needed, so a
+ * schedule stays valid across timezone and DST changes without being rebuilt. Times
+ * that fall in a DST gap are shifted forward by the gap, and times in an overlap use
+ * the earlier offset, as ZonedDateTime.of does.
+ */
+public final class ScheduleClock {
+
+    private ScheduleClock() {
+    }
+
+    /**
+     * The first occurrence of day/time strictly after the given instant
+     */
+    public static ZonedDateTime nextOccurrence(DayOfWeek day, LocalTime time, Instant after, ZoneId zone) {
+        LocalDate date = after.atZone(zone).toLocalDate().with(TemporalAdjusters.nextOrSame(day));
+        ZonedDateTime candidate = ZonedDateTime.of(date, time, zone);
+        if (!candidate.toInstant().isAfter(after)) {
+            candidate = ZonedDateTime.of(date.plusWeeks(1), time, zone);
+        }
+        return candidate;
+    }
+
+    public static ZonedDateTime nextOccurrence(DayOfWeek day, LocalTime time, long afterMillis) {
+        return nextOccurrence(day, time, Instant.ofEpochMilli(afterMillis), ZoneId.systemDefault());
+    }
+
+    public static ZonedDateTime now() {
+        return ZonedDateTime.now(ZoneId.systemDefault());
+    }
+
+    public static int minuteOfDay(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    public static LocalTime fromMinuteOfDay(int minuteOfDay) {
+        return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    /**
+     * Calendar.SUNDAY..Calendar.SATURDAY, as used by alarm request codes
+     */
+    public static int toCalendarDay(DayOfWeek day) {
+        return day.getValue() % 7 + 1;
+    }
+
+    public static DayOfWeek fromCalendarDay(int calendarDay) {
+        return calendarDay == Calendar.SUNDAY ? DayOfWeek.SUNDAY : DayOfWeek.of(calendarDay - 1);
+    }
+
+    /**
+     * Day named in the "Saturday follows" setting, or null for "None (Holiday)"
+     */
+    public static DayOfWeek fromDayName(String dayName) {
+        switch (dayName) {
+            case "Monday": return DayOfWeek.MONDAY;
+            case "Tuesday": return DayOfWeek.TUESDAY;
+            case "Wednesday": return DayOfWeek.WEDNESDAY;
+            case "Thursday": return DayOfWeek.THURSDAY;
+            case "Friday": return DayOfWeek.FRIDAY;
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Full alarm reschedule from the active timetable version, deferred until the device is idle.
+ *
+ * Enqueued by the fast restore path after boot or a time change, which only arms
+ * the next transition from the compiled schedule.
+ */
+public class ScheduleRecompileWorker extends Worker {
+
+    private static final String TAG = "ScheduleRecompileWorker";
+    private static final String WORK_NAME = "schedule_recompile";
+
+    public ScheduleRecompileWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        DNDManager dndManager = DNDManager.getInstance(getApplicationContext());
+        if (dndManager.isDndSchedulingEnabled()) {
+            dndManager.scheduleDndForClasses();
+            Log.d(TAG, "Deferred schedule recompile completed");
+        } else {
+            Log.d(TAG, "DND scheduling disabled - skipping deferred recompile");
+        }
+        return Result.success();
+    }
+
+    public static void enqueue(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ScheduleRecompileWorker.class)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+        Log.d(TAG, "Deferred schedule recompile enqueued");
+    }
+}
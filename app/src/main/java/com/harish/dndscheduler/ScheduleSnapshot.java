@@ -0,0 +1,183 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide, immutable view of the timetable: the parsed slots, the slots that
+ * apply on each day (Saturday compensation included), and the compiled intervals.
+ *
+ * The current snapshot lives in a single AtomicReference. Readers just get it - no
+ * lock, no copy, no parse - and everyone sees the same consistent view. A new snapshot
+ * is built once per change and swapped in: {@link #reload} after a timetable fetch,
+ * {@link #switchVersion} when the user rolls back to an earlier timetable, and
+ * {@link #onSaturdayFollowsChanged} when the setting changes (re-derived from the
+ * current slots, no reparse).
+ *
+ * Slots come from the active TimetableHistory version, so the HTML is only parsed
+ * once per fetch - or once ever, on the first start after an upgrade.
+ */
+public final class ScheduleSnapshot {
+
+    private static final String TAG = "ScheduleSnapshot";
+
+    private static final AtomicReference<ScheduleSnapshot> current = new AtomicReference<>();
+
+    private final int version;
+    private final List<ClassTimeSlot> slots;
+    private final String saturdayFollows;
+    private final Map<DayOfWeek, List<ClassTimeSlot>> slotsByDay;
+    private final CompiledSchedule compiledSchedule;
+
+    private ScheduleSnapshot(int version, List<ClassTimeSlot> slots, String saturdayFollows) {
+        this.version = version;
+        this.slots = Collections.unmodifiableList(new ArrayList<>(slots));
+        this.saturdayFollows = saturdayFollows;
+        this.compiledSchedule = CompiledSchedule.compile(this.slots, saturdayFollows);
+
+        DayOfWeek saturdayTargetDay = ScheduleClock.fromDayName(saturdayFollows);
+        Map<DayOfWeek, List<ClassTimeSlot>> byDay = new EnumMap<>(DayOfWeek.class);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            DayOfWeek source = day == DayOfWeek.SATURDAY ? saturdayTargetDay : day;
+            List<ClassTimeSlot> daySlots = new ArrayList<>();
+            if (source != null) {
+                for (ClassTimeSlot slot : this.slots) {
+                    if (slot.getDay() == source) {
+                        daySlots.add(slot);
+                    }
+                }
+            }
+            byDay.put(day, Collections.unmodifiableList(daySlots));
+        }
+        this.slotsByDay = Collections.unmodifiableMap(byDay);
+    }
+
+    /**
+     * The current snapshot, parsing the stored timetable only if none was built yet
+     */
+    public static ScheduleSnapshot get(Context context) {
+        ScheduleSnapshot snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        ScheduleSnapshot built = build(context);
+        // Another thread may have published first; its snapshot is just as good
+        return current.compareAndSet(null, built) ? built : current.get();
+    }
+
+    /**
+     * The current snapshot if one was built, without ever parsing
+     */
+    public static ScheduleSnapshot peek() {
+        return current.get();
+    }
+
+    /**
+     * Parse the freshly stored timetable, record it as the newest version and publish
+     * it. A page that parses to nothing keeps the previous version active.
+     */
+    public static ScheduleSnapshot reload(Context context) {
+        return record(context, TimetableStore.getClassTimeSlots(context));
+    }
+
+    /**
+     * Record already parsed slots (e.g. from an imported bundle) as the newest version
+     * and publish them
+     */
+    public static ScheduleSnapshot record(Context context, List<ClassTimeSlot> slots) {
+        TimetableHistory history = TimetableHistory.getInstance(context);
+        history.record(slots);
+        return publish(context, history);
+    }
+
+    /**
+     * Roll back (or forward) to a kept timetable version without fetching or parsing
+     *
+     * @return the published snapshot, or null if the version is no longer kept
+     */
+    public static ScheduleSnapshot switchVersion(Context context, int versionId) {
+        TimetableHistory history = TimetableHistory.getInstance(context);
+        if (!history.setActiveVersion(versionId)) {
+            return null;
+        }
+        return publish(context, history);
+    }
+
+    private static ScheduleSnapshot publish(Context context, TimetableHistory history) {
+        List<ClassTimeSlot> slots = history.getActiveSlots();
+        ScheduleSnapshot built = new ScheduleSnapshot(history.getActiveVersion(),
+                slots != null ? slots : Collections.emptyList(),
+                DndSettings.getInstance(context).getSaturdayFollows());
+        current.set(built);
+        Log.d(TAG, "Published snapshot of version " + built.version + " with " + built.slots.size() + " slots");
+        return built;
+    }
+
+    /**
+     * Re-derive the day views and intervals for a new Saturday setting
+     */
+    static void onSaturdayFollowsChanged(String saturdayFollows) {
+        ScheduleSnapshot updated = current.updateAndGet(snapshot ->
+                snapshot == null || snapshot.saturdayFollows.equals(saturdayFollows)
+                        ? snapshot
+                        : new ScheduleSnapshot(snapshot.version, snapshot.slots, saturdayFollows));
+        if (updated != null) {
+            Log.d(TAG, "Snapshot re-derived for Saturday following " + saturdayFollows);
+        }
+    }
+
+    private static ScheduleSnapshot build(Context context) {
+        TimetableHistory history = TimetableHistory.getInstance(context);
+        List<ClassTimeSlot> slots = history.getActiveSlots();
+        if (slots == null) {
+            // No history yet (first start after an upgrade) - parse once and keep it
+            history.record(TimetableStore.getClassTimeSlots(context));
+            slots = history.getActiveSlots();
+        }
+        return new ScheduleSnapshot(history.getActiveVersion(),
+                slots != null ? slots : Collections.emptyList(),
+                DndSettings.getInstance(context).getSaturdayFollows());
+    }
+
+    /**
+     * TimetableHistory version the slots came from, 0 if there is none
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public List<ClassTimeSlot> getSlots() {
+        return slots;
+    }
+
+    public boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    public String getSaturdayFollows() {
+        return saturdayFollows;
+    }
+
+    /**
+     * Slots that apply on the given day; Saturday shows the followed day or nothing
+     */
+    public List<ClassTimeSlot> getSlotsFor(DayOfWeek day) {
+        return slotsByDay.get(day);
+    }
+
+    public List<ClassTimeSlot> getTodaySlots() {
+        return getSlotsFor(ScheduleClock.now().getDayOfWeek());
+    }
+
+    public CompiledSchedule getCompiledSchedule() {
+        return compiledSchedule;
+    }
+}
@@ -1,12 +1,34 @@
 package com.harish.dndscheduler;
 
+import android.app.DatePickerDialog;
+import android.app.TimePickerDialog;
 import android.content.Intent;
+import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.LinearLayout;
+import android.widget.ScrollView;
 import android.widget.TextView;
+import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
 /**
  * Settings Activity with Tutorial Controls
  * 
@@ -15,13 +37,23 @@ import androidx.appcompat.app.AppCompatActivity;
  */
 public class SettingsActivity extends AppCompatActivity {
     
+    private static final int HISTORY_PREVIEW_RECORDS = 50;
+    
+    // Storage Access Framework pickers for the schedule bundle
+    private final ActivityResultLauncher<String> exportScheduleLauncher = registerForActivityResult(
+        new ActivityResultContracts.CreateDocument(ScheduleBundle.MIME_TYPE), this::exportSchedule);
+    private final ActivityResultLauncher<String[]> importScheduleLauncher = registerForActivityResult(
+        new ActivityResultContracts.OpenDocument(), this::importSchedule);
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
         // Create a simple settings layout
         LinearLayout layout = createSettingsLayout();
-        setContentView(layout);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(layout);
+        setContentView(scrollView);
         
         // Setup action bar
         if (getSupportActionBar() != null) {
@@ -75,6 +107,69 @@ public class SettingsActivity extends AppCompatActivity {
         helpButton.setOnClickListener(v -> showQuickHelp());
         layout.addView(helpButton);
         
+        // Timetable Versions Section
+        TextView timetableSection = new TextView(this);
+        timetableSection.setText("Timetable");
+        timetableSection.setTextSize(20);
+        timetableSection.setTextColor(getResources().getColor(R.color.primary));
+        timetableSection.setPadding(0, 32, 0, 16);
+        layout.addView(timetableSection);
+        
+        View versionsButton = createSettingsButton(
+            "⏪ Timetable Versions",
+            "Switch back to one of the last " + TimetableHistory.MAX_VERSIONS + " fetched timetables"
+        );
+        versionsButton.setOnClickListener(v -> showTimetableVersions());
+        layout.addView(versionsButton);
+        
+        View exceptionsButton = createSettingsButton(
+            "🏖️ Holidays & Exceptions",
+            "Skip holidays or single classes, or add an extra session"
+        );
+        exceptionsButton.setOnClickListener(v -> showExceptions());
+        layout.addView(exceptionsButton);
+        
+        View exportScheduleButton = createSettingsButton(
+            "💾 Export Schedule",
+            "Save timetable and settings to a file for another phone"
+        );
+        exportScheduleButton.setOnClickListener(v -> exportScheduleLauncher.launch("dnd_schedule.bin"));
+        layout.addView(exportScheduleButton);
+        
+        View importScheduleButton = createSettingsButton(
+            "📥 Import Schedule",
+            "Load an exported schedule - no login needed"
+        );
+        importScheduleButton.setOnClickListener(v -> importScheduleLauncher.launch(new String[]{"*/*"}));
+        layout.addView(importScheduleButton);
+        
+        // Transition History Section
+        TextView historySection = new TextView(this);
+        historySection.setText("Transition History");
+        historySection.setTextSize(20);
+        historySection.setTextColor(getResources().getColor(R.color.primary));
+        historySection.setPadding(0, 32, 0, 16);
+        layout.addView(historySection);
+        
+        TransitionLog transitionLog = TransitionLog.getInstance(this);
+        String recentHistory = transitionLog != null ? transitionLog.dump(HISTORY_PREVIEW_RECORDS) : "";
+        
+        TextView historyView = new TextView(this);
+        historyView.setText(recentHistory.isEmpty() ? "No transitions recorded yet" : recentHistory);
+        historyView.setTextSize(12);
+        historyView.setTypeface(Typeface.MONOSPACE);
+        historyView.setTextColor(getResources().getColor(R.color.hint_color));
+        historyView.setPadding(0, 8, 0, 16);
+        layout.addView(historyView);
+        
+        // Export History Button
+        View exportButton = createSettingsButton(
+            "📤 Export Transition History",
+            "Share the last " + TransitionLog.CAPACITY + " recorded DND transitions as text"
+        );
+        exportButton.setOnClickListener(v -> exportHistory());
+        layout.addView(exportButton);
+        
         // App Information Section
         TextView appSection = new TextView(this);
         appSection.setText("App Information");
@@ -94,6 +189,197 @@ public class SettingsActivity extends AppCompatActivity {
         return layout;
     }
     
+    private void showTimetableVersions() {
+        TimetableHistory history = TimetableHistory.getInstance(this);
+        List<TimetableHistory.Version> versions = history.getVersions();
+        if (versions.isEmpty()) {
+            Toast.makeText(this, "No timetable has been fetched yet", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        SimpleDateFormat format = new SimpleDateFormat("MMM d, h:mm a", Locale.getDefault());
+        String[] labels = new String[versions.size()];
+        for (int i = 0; i < versions.size(); i++) {
+            TimetableHistory.Version version = versions.get(i);
+            labels[i] = "v" + version.id + " - " + format.format(new Date(version.savedAtMillis))
+                    + " (" + version.slotCount + " classes)"
+                    + (version.id == history.getActiveVersion() ? " ✓" : "");
+        }
+        
+        new AlertDialog.Builder(this)
+            .setTitle("Timetable Versions")
+            .setItems(labels, (dialog, which) -> switchTimetableVersion(versions.get(which).id))
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    private void switchTimetableVersion(int versionId) {
+        if (ScheduleSnapshot.switchVersion(this, versionId) == null) {
+            Toast.makeText(this, "That version is no longer available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Re-arm alarms from the chosen version straight away
+        DNDManager dndManager = DNDManager.getInstance(this);
+        if (dndManager.isDndSchedulingEnabled()) {
+            dndManager.scheduleDndForClasses();
+            dndManager.forceImmediateDndStatusCheck();
+        }
+        Toast.makeText(this, "Switched to timetable v" + versionId, Toast.LENGTH_SHORT).show();
+    }
+    
+    private void showExceptions() {
+        ExceptionCalendar calendar = ExceptionCalendar.getInstance(this);
+        List<ExceptionCalendar.Entry> upcoming = calendar.getUpcoming((int) LocalDate.now().toEpochDay());
+        
+        String[] labels = new String[upcoming.size()];
+        for (int i = 0; i < upcoming.size(); i++) {
+            labels[i] = describeException(upcoming.get(i));
+        }
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+            .setTitle("Holidays & Exceptions")
+            .setPositiveButton("Add", (dialog, which) -> chooseExceptionKind())
+            .setNegativeButton("Close", null);
+        if (upcoming.isEmpty()) {
+            builder.setMessage("No upcoming holidays or exceptions");
+        } else {
+            // Tap an entry to remove it
+            builder.setItems(labels, (dialog, which) -> {
+                if (calendar.remove(upcoming.get(which))) {
+                    DNDManager.getInstance(this).onExceptionRemoved(upcoming.get(which));
+                }
+                Toast.makeText(this, "Removed " + labels[which], Toast.LENGTH_SHORT).show();
+            });
+        }
+        builder.show();
+    }
+    
+    private String describeException(ExceptionCalendar.Entry entry) {
+        String date = entry.getDate().format(DateTimeFormatter.ofPattern("EEE, MMM d", Locale.getDefault()));
+        switch (entry.kind) {
+            case ExceptionCalendar.KIND_HOLIDAY:
+                return date + " - Holiday";
+            case ExceptionCalendar.KIND_CANCELLED:
+                return date + " - Cancelled " + entry.label + " " + entry.getStart() + "-" + entry.getEnd();
+            default:
+                return date + " - Extra " + entry.getStart() + "-" + entry.getEnd();
+        }
+    }
+    
+    private void chooseExceptionKind() {
+        String[] kinds = {"Holiday (whole day)", "Cancel a class", "Extra session"};
+        new AlertDialog.Builder(this)
+            .setTitle("Add exception")
+            .setItems(kinds, (dialog, which) -> pickDate(date -> {
+                if (which == 0) {
+                    addException(ExceptionCalendar.Entry.holiday(date, "Holiday"));
+                } else if (which == 1) {
+                    pickClassToCancel(date);
+                } else {
+                    pickTime("Start time", start -> pickTime("End time", end -> {
+                        if (end.isAfter(start)) {
+                            addException(ExceptionCalendar.Entry.extra(date, start, end, "Extra session"));
+                        } else {
+                            Toast.makeText(this, "End time must be after start time", Toast.LENGTH_SHORT).show();
+                        }
+                    }));
+                }
+            }))
+            .show();
+    }
+    
+    private void pickClassToCancel(LocalDate date) {
+        List<ClassTimeSlot> slots = ScheduleSnapshot.get(this).getSlotsFor(date.getDayOfWeek());
+        if (slots.isEmpty()) {
+            Toast.makeText(this, "No classes on that day", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = new String[slots.size()];
+        for (int i = 0; i < slots.size(); i++) {
+            ClassTimeSlot slot = slots.get(i);
+            labels[i] = slot.getSubject() + "  " + slot.getStartTime() + "-" + slot.getEndTime();
+        }
+        new AlertDialog.Builder(this)
+            .setTitle("Cancel which class?")
+            .setItems(labels, (dialog, which) -> {
+                ClassTimeSlot slot = slots.get(which);
+                addException(ExceptionCalendar.Entry.cancelled(date, slot.getStartTime(), slot.getEndTime(), slot.getSubject()));
+            })
+            .show();
+    }
+    
+    private void pickDate(Consumer<LocalDate> onPicked) {
+        LocalDate today = LocalDate.now();
+        new DatePickerDialog(this,
+            (view, year, month, dayOfMonth) -> onPicked.accept(LocalDate.of(year, month + 1, dayOfMonth)),
+            today.getYear(), today.getMonthValue() - 1, today.getDayOfMonth()).show();
+    }
+    
+    private void pickTime(String title, Consumer<LocalTime> onPicked) {
+        TimePickerDialog dialog = new TimePickerDialog(this,
+            (view, hourOfDay, minute) -> onPicked.accept(LocalTime.of(hourOfDay, minute)),
+            9, 0, false);
+        dialog.setTitle(title);
+        dialog.show();
+    }
+    
+    private void addException(ExceptionCalendar.Entry entry) {
+        if (ExceptionCalendar.getInstance(this).add(entry)) {
+            DNDManager.getInstance(this).onExceptionsChanged();
+            Toast.makeText(this, "Added " + describeException(entry), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Already added", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void exportSchedule(Uri uri) {
+        if (uri == null) {
+            return; // picker cancelled
+        }
+        try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+            if (out == null) {
+                throw new IOException("No output stream for " + uri);
+            }
+            ScheduleBundle.capture(this).writeTo(out);
+            Toast.makeText(this, "Schedule exported", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e("SettingsActivity", "Schedule export failed", e);
+            Toast.makeText(this, "Export failed", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void importSchedule(Uri uri) {
+        if (uri == null) {
+            return; // picker cancelled
+        }
+        ScheduleBundle bundle;
+        try (InputStream in = getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("No input stream for " + uri);
+            }
+            bundle = ScheduleBundle.readFrom(in);
+        } catch (IOException e) {
+            Log.e("SettingsActivity", "Schedule import failed", e);
+            Toast.makeText(this, "Not a valid schedule file", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        bundle.apply(this);
+        Toast.makeText(this, "Imported " + bundle.slots.size() + " classes", Toast.LENGTH_SHORT).show();
+    }
+    
+    private void exportHistory() {
+        TransitionLog transitionLog = TransitionLog.getInstance(this);
+        if (transitionLog == null) {
+            Toast.makeText(this, "Transition history is not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "DND Scheduler transition history");
+        intent.putExtra(Intent.EXTRA_TEXT, transitionLog.dump(TransitionLog.CAPACITY));
+        startActivity(Intent.createChooser(intent, "Export history"));
+    }
+    
     private View createSettingsButton(String title, String description) {
         LinearLayout buttonLayout = new LinearLayout(this);
         buttonLayout.setOrientation(LinearLayout.VERTICAL);
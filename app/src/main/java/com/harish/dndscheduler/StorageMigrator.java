@@ -0,0 +1,160 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * One-shot migration of state that older versions kept in dnd_prefs into the newer
+ * stores (runtime state file, timetable history, compiled schedule, backup bundle).
+ *
+ * The schema version is a single int in dnd_prefs, checked once per process from
+ * DNDApplication. When it is current nothing else happens, so the alarm and check
+ * paths never see a migration check. Otherwise the missing steps run in order on a
+ * background thread and the version is bumped after each one, so an interrupted run
+ * resumes where it stopped. Every step is idempotent.
+ *
+ * Until a step has run, its store falls back to the legacy data on its own (read only),
+ * so a receiver firing before the migration finishes still sees the right state.
+ *
+ * A stored version newer than this build means the app was downgraded: nothing is
+ * migrated and the marker is left alone, and each store ignores formats it does not
+ * know instead of misreading them. The stores that outlive an update (timetable
+ * history, compiled schedule, exceptions, backup bundle) also stop writing, see
+ * {@link #canWrite}, so reinstalling the newer version finds its data intact.
+ * MainActivity tells the user.
+ */
+public final class StorageMigrator {
+
+    private static final String TAG = "StorageMigrator";
+    static final String KEY_SCHEMA_VERSION = "storage_schema_version";
+
+    public static final int SCHEMA_VERSION = 4;
+
+    private interface Migration {
+        /**
+         * @return false to stop and retry on the next start
+         */
+        boolean migrate(Context context);
+    }
+
+    // MIGRATIONS[i] takes the schema from version i to i + 1
+    private static final Migration[] MIGRATIONS = {
+            // 1: runtime state out of dnd_prefs into runtime_state.bin
+            context -> RuntimeStateStore.getInstance(context).migrateLegacyKeys(context),
+            // 2: stored timetable_html parsed once into the timetable history
+            context -> {
+                ScheduleSnapshot.get(context);
+                return true;
+            },
+            // 3: compiled schedule for the fast boot path, if it was never written
+            context -> {
+                ScheduleSnapshot snapshot = ScheduleSnapshot.get(context);
+                if (!snapshot.isEmpty() && CompiledSchedule.load(context) == null) {
+                    snapshot.getCompiledSchedule().save(context);
+                }
+                return true;
+            },
+            // 4: backup bundle - import one restored onto a fresh install, else write the first one
+            context -> {
+                if (!ScheduleBundle.restoreFromBackupIfNeeded(context)
+                        && !ScheduleSnapshot.get(context).isEmpty()) {
+                    ScheduleBundle.saveForBackup(context);
+                }
+                return true;
+            }
+    };
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static volatile boolean downgradeDetected;
+
+    private StorageMigrator() {
+    }
+
+    /**
+     * Queue any pending migrations. Costs one preference read when there are none.
+     */
+    public static void migrateInBackground(Context context) {
+        Context appContext = context.getApplicationContext();
+        int stored = prefs(appContext).getInt(KEY_SCHEMA_VERSION, 0);
+        if (stored == SCHEMA_VERSION) {
+            return;
+        }
+        if (stored > SCHEMA_VERSION) {
+            downgradeDetected = true;
+            Log.w(TAG, "Storage schema " + stored + " is newer than this build (" + SCHEMA_VERSION
+                    + ") - app was downgraded, leaving data untouched");
+            return;
+        }
+        executor.execute(() -> migrate(appContext));
+    }
+
+    /**
+     * Import a backup bundle restored onto this install, on the migration thread and after
+     * any migrations queued before it. The callback runs on the main thread with whether
+     * a schedule was imported.
+     */
+    public static void restoreBackupInBackground(Context context, Consumer<Boolean> onDone) {
+        Context appContext = context.getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(() -> {
+            boolean restored = ScheduleBundle.restoreFromBackupIfNeeded(appContext);
+            mainHandler.post(() -> onDone.accept(restored));
+        });
+    }
+
+    /**
+     * Whether the data on disk was written by a newer version of the app
+     */
+    public static boolean isDowngradeDetected() {
+        return downgradeDetected;
+    }
+
+    /**
+     * Whether a persistent store may be written. False after a downgrade: the files are
+     * left as the newer version wrote them, and changes only live until the process ends.
+     */
+    static boolean canWrite(String store) {
+        if (downgradeDetected) {
+            Log.w(TAG, "Downgraded build - not writing " + store);
+            return false;
+        }
+        return true;
+    }
+
+    private static synchronized void migrate(Context context) {
+        SharedPreferences prefs = prefs(context);
+        int version = prefs.getInt(KEY_SCHEMA_VERSION, 0);
+        long startTime = System.currentTimeMillis();
+
+        while (version < SCHEMA_VERSION) {
+            boolean done;
+            try {
+                done = MIGRATIONS[version].migrate(context);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Migration to schema " + (version + 1) + " failed", e);
+                done = false;
+            }
+            if (!done) {
+                Log.w(TAG, "Stopped at schema " + version + ", will retry on next start");
+                return;
+            }
+            version++;
+            // commit, not apply: the marker must not get ahead of the data after a crash
+            prefs.edit().putInt(KEY_SCHEMA_VERSION, version).commit();
+            Log.d(TAG, "Storage migrated to schema " + version);
+        }
+        Log.d(TAG, "Storage migration finished in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(DndSettings.PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
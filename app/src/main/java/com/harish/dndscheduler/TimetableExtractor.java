@@ -0,0 +1,64 @@
+package com.harish.dndscheduler;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Pulls the timetable table out of the portal's page while it downloads.
+ *
+ * The page is mostly navigation, scripts and layout; only the
+ * {@code <table cellspacing="1" ...> ... </table>} part is ever used. Everything before
+ * the table is scanned in the source's buffer and dropped segment by segment, only the
+ * table itself is buffered, and reading stops at its {@code </table>} - the rest of
+ * the page is never read.
+ */
+final class TimetableExtractor {
+
+    private static final ByteString TABLE_START = ByteString.encodeUtf8("<table cellspacing=\"1\"");
+    private static final ByteString TABLE_END = ByteString.encodeUtf8("</table>");
+
+    private TimetableExtractor() {
+    }
+
+    /**
+     * @return the table markup, or null if the page ended without one
+     */
+    static String extractTable(BufferedSource source, Charset charset) throws IOException {
+        if (!skipTo(source, TABLE_START)) {
+            return null;
+        }
+        long end = source.indexOf(TABLE_END);
+        if (end == -1) {
+            return null;
+        }
+        return source.readString(end + TABLE_END.size(), charset);
+    }
+
+    /**
+     * Discard input up to the marker, keeping at most a segment's worth buffered
+     *
+     * @return false if the source ended first
+     */
+    private static boolean skipTo(BufferedSource source, ByteString marker) throws IOException {
+        Buffer buffer = source.getBuffer();
+        long keep = marker.size() - 1;
+        while (true) {
+            long index = buffer.indexOf(marker);
+            if (index != -1) {
+                buffer.skip(index);
+                return true;
+            }
+            // Drop what was scanned, but keep a tail that could be the start of a split marker
+            if (buffer.size() > keep) {
+                buffer.skip(buffer.size() - keep);
+            }
+            if (!source.request(buffer.size() + 1)) {
+                return false;
+            }
+        }
+    }
+}
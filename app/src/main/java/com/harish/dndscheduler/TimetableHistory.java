@@ -0,0 +1,387 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The last MAX_VERSIONS parsed timetables, so a broken portal page can be rolled back.
+ *
+ * The oldest kept version is stored in full as the base; every later one is a delta
+ * against the version before it (indices of removed slots plus the added slots). A
+ * timetable rarely changes by more than a few classes, so the whole file stays in the
+ * low kilobytes. When the history is full, the oldest delta is folded into the base.
+ *
+ * Versions hold parsed slots, not HTML, so switching versions needs neither a fetch
+ * nor a parse. The active version is stored in the file and is what ScheduleSnapshot
+ * builds from on a cold start.
+ *
+ * Layout: magic, format version, active id, base (id, time, slots), delta count, then
+ * per delta its id, time, removed indices and added slots. A slot is day (byte), start
+ * and end minute of day (short) and subject (UTF).
+ */
+public final class TimetableHistory {
+
+    private static final String TAG = "TimetableHistory";
+    private static final String FILE_NAME = "timetable_history.bin";
+    private static final int MAGIC = 0x444E4448; // "DNDH"
+    private static final int FORMAT_VERSION = 1;
+
+    public static final int MAX_VERSIONS = 8;
+
+    // Same order the parser produces: by day, then by start time
+    private static final Comparator<ClassTimeSlot> SLOT_ORDER = Comparator
+            .comparing(ClassTimeSlot::getDay)
+            .thenComparing(ClassTimeSlot::getStartTime)
+            .thenComparing(ClassTimeSlot::getEndTime);
+
+    /**
+     * Summary of one stored version, for pickers and logs
+     */
+    public static final class Version {
+        public final int id;
+        public final long savedAtMillis;
+        public final int slotCount;
+
+        Version(int id, long savedAtMillis, int slotCount) {
+            this.id = id;
+            this.savedAtMillis = savedAtMillis;
+            this.slotCount = slotCount;
+        }
+    }
+
+    private static final class Delta {
+        final int id;
+        final long savedAtMillis;
+        final int[] removed;
+        final List<ClassTimeSlot> added;
+
+        Delta(int id, long savedAtMillis, int[] removed, List<ClassTimeSlot> added) {
+            this.id = id;
+            this.savedAtMillis = savedAtMillis;
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+    private static TimetableHistory instance;
+
+    private final File file;
+
+    private int activeId;
+    private int baseId;
+    private long baseSavedAtMillis;
+    private List<ClassTimeSlot> base = Collections.emptyList();
+    private final List<Delta> deltas = new ArrayList<>();
+
+    // Materialised active version, so repeated reads don't replay deltas
+    private List<ClassTimeSlot> activeSlots;
+
+    private TimetableHistory(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    TimetableHistory(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized TimetableHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new TimetableHistory(context);
+        }
+        return instance;
+    }
+
+    public synchronized boolean isEmpty() {
+        return baseId == 0;
+    }
+
+    public synchronized int getActiveVersion() {
+        return activeId;
+    }
+
+    public synchronized int getLatestVersion() {
+        return deltas.isEmpty() ? baseId : deltas.get(deltas.size() - 1).id;
+    }
+
+    /**
+     * Store a freshly parsed timetable as the newest version and make it active.
+     *
+     * Nothing is stored if it matches the newest version. An empty timetable is never
+     * stored - that is what a broken or logged-out page parses to.
+     *
+     * @return the id of the active version afterwards, or 0 if there is none
+     */
+    public synchronized int record(List<ClassTimeSlot> parsed) {
+        if (parsed == null || parsed.isEmpty()) {
+            Log.w(TAG, "Refusing to record an empty timetable, keeping version " + activeId);
+            return activeId;
+        }
+        List<ClassTimeSlot> slots = sorted(parsed);
+        long now = System.currentTimeMillis();
+
+        if (isEmpty()) {
+            baseId = 1;
+            baseSavedAtMillis = now;
+            base = slots;
+        } else {
+            List<ClassTimeSlot> latest = materialise(getLatestVersion());
+            if (latest.equals(slots)) {
+                Log.d(TAG, "Timetable unchanged since version " + getLatestVersion());
+                return activeId == getLatestVersion() ? activeId : setActive(getLatestVersion(), latest);
+            }
+            deltas.add(diff(getLatestVersion() + 1, now, latest, slots));
+            while (deltas.size() > MAX_VERSIONS - 1) {
+                foldOldestDelta();
+            }
+        }
+        int id = getLatestVersion();
+        Log.d(TAG, "Recorded timetable version " + id + " with " + slots.size() + " slots");
+        return setActive(id, slots);
+    }
+
+    /**
+     * Slots of the active version, or null if nothing was recorded yet
+     */
+    public synchronized List<ClassTimeSlot> getActiveSlots() {
+        if (isEmpty()) {
+            return null;
+        }
+        if (activeSlots == null) {
+            activeSlots = Collections.unmodifiableList(materialise(activeId));
+        }
+        return activeSlots;
+    }
+
+    /**
+     * Slots of any kept version, or null if it is no longer kept
+     */
+    public synchronized List<ClassTimeSlot> getSlots(int versionId) {
+        if (!contains(versionId)) {
+            return null;
+        }
+        return versionId == activeId ? getActiveSlots() : Collections.unmodifiableList(materialise(versionId));
+    }
+
+    /**
+     * Make a kept version the active one
+     */
+    public synchronized boolean setActiveVersion(int versionId) {
+        if (!contains(versionId)) {
+            Log.w(TAG, "Version " + versionId + " is not kept");
+            return false;
+        }
+        setActive(versionId, materialise(versionId));
+        return true;
+    }
+
+    /**
+     * Kept versions, newest first
+     */
+    public synchronized List<Version> getVersions() {
+        List<Version> versions = new ArrayList<>();
+        if (isEmpty()) {
+            return versions;
+        }
+        versions.add(new Version(baseId, baseSavedAtMillis, base.size()));
+        int size = base.size();
+        for (Delta delta : deltas) {
+            size += delta.added.size() - delta.removed.length;
+            versions.add(new Version(delta.id, delta.savedAtMillis, size));
+        }
+        Collections.reverse(versions);
+        return versions;
+    }
+
+    private boolean contains(int versionId) {
+        return !isEmpty() && versionId >= baseId && versionId <= getLatestVersion();
+    }
+
+    private int setActive(int id, List<ClassTimeSlot> slots) {
+        activeId = id;
+        activeSlots = Collections.unmodifiableList(slots);
+        save();
+        return id;
+    }
+
+    private List<ClassTimeSlot> materialise(int versionId) {
+        List<ClassTimeSlot> slots = new ArrayList<>(base);
+        for (Delta delta : deltas) {
+            if (delta.id > versionId) {
+                break;
+            }
+            slots = apply(slots, delta);
+        }
+        return slots;
+    }
+
+    private static List<ClassTimeSlot> apply(List<ClassTimeSlot> previous, Delta delta) {
+        boolean[] removed = new boolean[previous.size()];
+        for (int index : delta.removed) {
+            removed[index] = true;
+        }
+        List<ClassTimeSlot> result = new ArrayList<>(previous.size() + delta.added.size());
+        for (int i = 0; i < previous.size(); i++) {
+            if (!removed[i]) {
+                result.add(previous.get(i));
+            }
+        }
+        result.addAll(delta.added);
+        Collections.sort(result, SLOT_ORDER);
+        return result;
+    }
+
+    private static Delta diff(int id, long savedAtMillis, List<ClassTimeSlot> previous, List<ClassTimeSlot> next) {
+        List<ClassTimeSlot> unmatched = new ArrayList<>(next);
+        List<Integer> removed = new ArrayList<>();
+        for (int i = 0; i < previous.size(); i++) {
+            // Each new slot can only account for one old slot
+            if (!unmatched.remove(previous.get(i))) {
+                removed.add(i);
+            }
+        }
+        int[] removedIndices = new int[removed.size()];
+        for (int i = 0; i < removedIndices.length; i++) {
+            removedIndices[i] = removed.get(i);
+        }
+        return new Delta(id, savedAtMillis, removedIndices, unmatched);
+    }
+
+    private void foldOldestDelta() {
+        Delta oldest = deltas.remove(0);
+        base = apply(base, oldest);
+        baseId = oldest.id;
+        baseSavedAtMillis = oldest.savedAtMillis;
+        if (activeId < baseId) {
+            // The active version fell out of the history; the oldest kept one is closest
+            activeId = baseId;
+            activeSlots = null;
+        }
+    }
+
+    private static List<ClassTimeSlot> sorted(List<ClassTimeSlot> slots) {
+        List<ClassTimeSlot> copy = new ArrayList<>(slots);
+        Collections.sort(copy, SLOT_ORDER);
+        return copy;
+    }
+
+    private void save() {
+        if (!StorageMigrator.canWrite(FILE_NAME)) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(activeId);
+            out.writeInt(baseId);
+            out.writeLong(baseSavedAtMillis);
+            writeSlots(out, base);
+            out.writeInt(deltas.size());
+            for (Delta delta : deltas) {
+                out.writeInt(delta.id);
+                out.writeLong(delta.savedAtMillis);
+                out.writeShort(delta.removed.length);
+                for (int index : delta.removed) {
+                    out.writeShort(index);
+                }
+                writeSlots(out, delta.added);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write timetable history", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace timetable history file");
+            tmp.delete();
+            return;
+        }
+        Log.d(TAG, "Saved timetable history: " + file.length() + " bytes, versions "
+                + baseId + ".." + getLatestVersion() + ", active " + activeId);
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                Log.w(TAG, "Timetable history has unknown format, ignoring");
+                return;
+            }
+            int active = in.readInt();
+            int loadedBaseId = in.readInt();
+            long loadedBaseTime = in.readLong();
+            List<ClassTimeSlot> loadedBase = readSlots(in);
+            int deltaCount = in.readInt();
+            List<Delta> loadedDeltas = new ArrayList<>(deltaCount);
+            for (int i = 0; i < deltaCount; i++) {
+                int id = in.readInt();
+                long savedAt = in.readLong();
+                int[] removed = new int[in.readShort()];
+                for (int j = 0; j < removed.length; j++) {
+                    removed[j] = in.readShort();
+                }
+                loadedDeltas.add(new Delta(id, savedAt, removed, readSlots(in)));
+            }
+            activeId = active;
+            baseId = loadedBaseId;
+            baseSavedAtMillis = loadedBaseTime;
+            base = loadedBase;
+            deltas.addAll(loadedDeltas);
+            Log.d(TAG, "Loaded timetable history, versions " + baseId + ".." + getLatestVersion()
+                    + ", active " + activeId);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read timetable history", e);
+        }
+    }
+
+    static void writeSlots(DataOutputStream out, List<ClassTimeSlot> slots) throws IOException {
+        out.writeShort(slots.size());
+        for (ClassTimeSlot slot : slots) {
+            out.writeByte(slot.getDay().getValue());
+            out.writeShort(ScheduleClock.minuteOfDay(slot.getStartTime()));
+            out.writeShort(ScheduleClock.minuteOfDay(slot.getEndTime()));
+            out.writeUTF(slot.getSubject() != null ? slot.getSubject() : "");
+        }
+    }
+
+    /**
+     * @throws IOException if a field is out of range, so damaged data is rejected before
+     *                     anything is built from it
+     */
+    static List<ClassTimeSlot> readSlots(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<ClassTimeSlot> slots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int day = in.readByte();
+            int start = in.readShort();
+            int end = in.readShort();
+            if (day < 1 || day > 7 || !isMinuteOfDay(start) || !isMinuteOfDay(end)) {
+                throw new IOException("Invalid slot " + day + " " + start + "-" + end);
+            }
+            slots.add(new ClassTimeSlot(DayOfWeek.of(day), ScheduleClock.fromMinuteOfDay(start),
+                    ScheduleClock.fromMinuteOfDay(end), in.readUTF()));
+        }
+        return slots;
+    }
+
+    private static boolean isMinuteOfDay(int minute) {
+        return minute >= 0 && minute < 24 * 60;
+    }
+}
@@ -3,13 +3,12 @@ package com.harish.dndscheduler;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
-import java.text.SimpleDateFormat;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,11 +21,8 @@ public class TimetableStore {
         
         // Log all slots for verification
         for (ClassTimeSlot slot : allSlots) {
-            Calendar cal = Calendar.getInstance();
-            cal.setTimeInMillis(slot.getStartMillis());
-            String dayName = getDayName(cal.get(Calendar.DAY_OF_WEEK));
-            String time = new SimpleDateFormat("h:mm a", Locale.getDefault()).format(new Date(slot.getStartMillis())) +
-                    " - " + new SimpleDateFormat("h:mm a", Locale.getDefault()).format(new Date(slot.getEndMillis()));
+            String dayName = getDayName(slot.getCalendarDayOfWeek());
+            String time = slot.getStartTime() + " - " + slot.getEndTime();
             Log.d("TimetableStore", "Stored slot: " + dayName + " " + time + " => " + slot.getSubject());
         }
         
@@ -36,8 +32,18 @@ public class TimetableStore {
 
     public static List<ClassTimeSlot> getClassTimeSlotsForDay(Context context, int targetDay) {
         SharedPreferences prefs = context.getSharedPreferences("dnd_prefs", Context.MODE_PRIVATE);
-        String html = prefs.getString("timetable_html", "");
+        return parse(prefs.getString("timetable_html", ""), targetDay);
+    }
+
+    /**
+     * Parse all days' slots from timetable markup that has not been stored yet, e.g.
+     * the table streamed out of a fresh fetch
+     */
+    public static List<ClassTimeSlot> parseSlots(String html) {
+        return parse(html, -1); // -1 means ALL DAYS
+    }
 
+    private static List<ClassTimeSlot> parse(String html, int targetDay) {
         Log.d("TimetableStore", "Starting to parse timetable HTML, length: " + html.length());
 
         List<ClassTimeSlot> slots = new ArrayList<>();
@@ -154,11 +160,12 @@ public class TimetableStore {
                     if (!code.isEmpty()) {
                         String[] parts = timeRanges.get(i).split("-");
                         
-                        // Create time for the specific day of week
-                        long start = timeToMillisForDay(parts[0], dayOfWeek);
-                        long end = timeToMillisForDay(parts[1], dayOfWeek);
-                        
-                        daySlots.add(new ClassTimeSlot(start, end, code));
+                        // Wall-clock times only - instants are resolved when alarms are armed
+                        LocalTime start = parseClassTime(parts[0]);
+                        LocalTime end = parseClassTime(parts[1]);
+                        if (start == null || end == null) continue;
+
+                        daySlots.add(new ClassTimeSlot(ScheduleClock.fromCalendarDay(dayOfWeek + 1), start, end, code));
                         Log.d("TimetableStore", "Added " + dayName + " slot " + i + ": " + code + " at " + timeRanges.get(i));
                     } else {
                         Log.d("TimetableStore", "Skipped empty slot " + i + " for " + dayName);
@@ -181,9 +188,8 @@ public class TimetableStore {
         return daySlots;
     }
 
-    private static long timeToMillisForDay(String time, int dayOfWeek) {
+    private static LocalTime parseClassTime(String time) {
         try {
-            // Parse time same as before
             String[] parts = time.split(":");
             int hour = Integer.parseInt(parts[0]);
             int minute = Integer.parseInt(parts[1]);
@@ -193,22 +199,10 @@ public class TimetableStore {
                 hour += 12; // Convert to PM
             }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.set(Calendar.DAY_OF_WEEK, dayOfWeek + 1); // Calendar uses 1-7
-            calendar.set(Calendar.HOUR_OF_DAY, hour);
-            calendar.set(Calendar.MINUTE, minute);
-            calendar.set(Calendar.SECOND, 0);
-            calendar.set(Calendar.MILLISECOND, 0);
-
-            // If the day has passed this week, schedule for next week
-            if (calendar.getTimeInMillis() <= System.currentTimeMillis()) {
-                calendar.add(Calendar.WEEK_OF_YEAR, 1);
-            }
-
-            return calendar.getTimeInMillis();
+            return LocalTime.of(hour, minute);
         } catch (Exception e) {
-            Log.e("TimetableStore", "Error converting time to millis for day: " + time, e);
-            return 0;
+            Log.e("TimetableStore", "Error parsing class time: " + time, e);
+            return null;
         }
     }
     
@@ -237,8 +231,8 @@ public class TimetableStore {
             Log.d("TimetableStore", "Found " + timeRanges.size() + " time slots");
 
             // Get today's day abbreviation (Mon, Tue, etc.)
-            Calendar cal = Calendar.getInstance();
-            String todayName = getDayName(cal.get(Calendar.DAY_OF_WEEK)); // e.g. "Fri"
+            DayOfWeek today = ScheduleClock.now().getDayOfWeek();
+            String todayName = getDayName(ScheduleClock.toCalendarDay(today)); // e.g. "Fri"
 
             // Regex to find the correct day row (e.g. <td class="tabletitle06"><font><b>Fri</b></font></td>)
             Pattern rowPattern = Pattern.compile(
@@ -266,9 +260,9 @@ public class TimetableStore {
                 if (code.isEmpty()) continue;
 
                 String subject = code; // Until we parse subject mapping table
-                long[] times = parseTimeRange(timeRanges.get(i));
-                if (times[0] > 0 && times[1] > 0 && times[1] > times[0]) {
-                    slots.add(new ClassTimeSlot(times[0], times[1], subject));
+                LocalTime[] times = parseTimeRange(timeRanges.get(i));
+                if (times[0] != null && times[1] != null && times[1].isAfter(times[0])) {
+                    slots.add(new ClassTimeSlot(today, times[0], times[1], subject));
                     Log.d("TimetableStore", timeRanges.get(i) + " => " + subject);
                 }
             }
@@ -282,13 +276,13 @@ public class TimetableStore {
     }
 
 
-    private static long[] parseTimeRange(String range) {
+    private static LocalTime[] parseTimeRange(String range) {
         try {
             String[] parts = range.split("[-–~to]+");
-            if (parts.length != 2) return new long[]{0, 0};
-            return new long[]{timeToMillis(parts[0].trim()), timeToMillis(parts[1].trim())};
+            if (parts.length != 2) return new LocalTime[2];
+            return new LocalTime[]{parseTime(parts[0].trim()), parseTime(parts[1].trim())};
         } catch (Exception e) {
-            return new long[]{0, 0};
+            return new LocalTime[2];
         }
     }
 
@@ -306,11 +300,11 @@ public class TimetableStore {
         }
     }
 
-    private static long timeToMillis(String time) {
+    private static LocalTime parseTime(String time) {
         try {
             // Try parsing with AM/PM first
             if (time.toLowerCase().contains("am") || time.toLowerCase().contains("pm")) {
-                return timeToMillisWithAmPm(time);
+                return parseTimeWithAmPm(time);
             }
 
             String[] parts = time.split(":");
@@ -322,25 +316,19 @@ public class TimetableStore {
                 hour += 12; // Convert to PM
             }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.set(Calendar.HOUR_OF_DAY, hour);
-            calendar.set(Calendar.MINUTE, minute);
-            calendar.set(Calendar.SECOND, 0);
-            calendar.set(Calendar.MILLISECOND, 0);
-
-            return calendar.getTimeInMillis();
+            return LocalTime.of(hour, minute);
         } catch (Exception e) {
-            Log.e("TimetableStore", "Error converting time to millis: " + time, e);
-            return 0;
+            Log.e("TimetableStore", "Error parsing time: " + time, e);
+            return null;
         }
     }
 
-    private static long timeToMillisWithAmPm(String time) {
+    private static LocalTime parseTimeWithAmPm(String time) {
         try {
             time = time.trim().toUpperCase(); // Example: "01:00 PM"
             String[] parts = time.split("\\s+"); // Split by space between time and AM/PM
 
-            if (parts.length != 2) return 0;
+            if (parts.length != 2) return null;
 
             String[] hourMin = parts[0].split(":");
             int hour = Integer.parseInt(hourMin[0]);
@@ -350,16 +338,10 @@ public class TimetableStore {
             if (amPm.equals("PM") && hour != 12) hour += 12;
             if (amPm.equals("AM") && hour == 12) hour = 0;
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.set(Calendar.HOUR_OF_DAY, hour);
-            calendar.set(Calendar.MINUTE, minute);
-            calendar.set(Calendar.SECOND, 0);
-            calendar.set(Calendar.MILLISECOND, 0);
-
-            return calendar.getTimeInMillis();
+            return LocalTime.of(hour, minute);
         } catch (Exception e) {
-            Log.e("TimetableStore", "Error in timeToMillisWithAmPm: " + time, e);
-            return 0;
+            Log.e("TimetableStore", "Error in parseTimeWithAmPm: " + time, e);
+            return null;
         }
     }
 
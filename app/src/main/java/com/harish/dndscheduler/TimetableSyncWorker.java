@@ -0,0 +1,128 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the timetable current in the background on the session of the last login.
+ *
+ * Runs twice a day when there is a network and the battery is not low, and uses the
+ * same fetch, extraction and change detection as a manual refresh. An unchanged
+ * timetable ends the run; a changed one is handed to DNDManager, which moves only the
+ * differing alarms.
+ *
+ * An expired session is not retried: the saved cookies are dropped, so later runs
+ * finish at once without touching the network until the user logs in again.
+ */
+public class TimetableSyncWorker extends Worker {
+
+    private static final String TAG = "TimetableSyncWorker";
+    private static final String PERIODIC_WORK_NAME = "timetable_sync";
+
+    private static final long SYNC_INTERVAL_HOURS = 12;
+    // Longer than the session refresh deadline, so the flow always reports first
+    private static final long WAIT_TIMEOUT_SECONDS = 45;
+
+    public TimetableSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        PortalClient portalClient = PortalClient.getInstance(context);
+        if (portalClient.isBusy()) {
+            // The user is logging in right now (or solving a captcha); don't abandon their flow
+            Log.d(TAG, "Portal flow in progress - retrying later");
+            return Result.retry();
+        }
+        // A login may replace the session while the probe runs; only the probed one is dropped
+        int sessionGeneration = portalClient.getSessionGeneration();
+
+        CompiledSchedule previous = ScheduleSnapshot.get(context).getCompiledSchedule();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Result> result = new AtomicReference<>(Result.retry());
+        AtomicReference<Boolean> changed = new AtomicReference<>(false);
+
+        portalClient.refreshWithSavedSession(new PortalClient.SessionCallback() {
+            @Override
+            public void onSuccess(boolean timetableChanged) {
+                changed.set(timetableChanged);
+                result.set(Result.success());
+                done.countDown();
+            }
+
+            @Override
+            public void onSessionExpired() {
+                // Back off until the next login instead of retrying against a dead session
+                if (portalClient.clearSession(sessionGeneration)) {
+                    Log.d(TAG, "Session expired - background sync paused until the next login");
+                }
+                result.set(Result.success());
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.w(TAG, "Background sync failed: " + error);
+                result.set(Result.retry());
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Background sync did not finish in time");
+                return Result.retry();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+
+        if (changed.get()) {
+            Log.d(TAG, "Timetable changed in the background, applying diff");
+            DNDManager.getInstance(context).onTimetableChanged(previous);
+        } else {
+            Log.d(TAG, "Background sync finished, timetable unchanged");
+        }
+        return result.get();
+    }
+
+    /**
+     * Sync twice a day for as long as scheduling is enabled
+     */
+    public static void schedulePeriodic(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(TimetableSyncWorker.class,
+                SYNC_INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 15, TimeUnit.MINUTES)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    public static void cancelPeriodic(Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(PERIODIC_WORK_NAME);
+    }
+}
@@ -0,0 +1,161 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Single-entry write-ahead journal for DND mode transitions.
+ *
+ * Before the ringer mode or interruption filter is touched, the intent (what kind of
+ * transition, the user's original value and the value being set) is forced to disk.
+ * The entry counts as committed once RuntimeState carries its sequence number, so a
+ * transition is: write intent, apply the change, commit the state. If the process dies
+ * in between, DNDManager finds an entry newer than the state on the next start and
+ * finishes or rolls back the transition from the journal.
+ *
+ * Layout (little endian, 32 bytes):
+ * <pre>
+ *  0  int   magic "DNDJ"
+ *  4  short version
+ *  6  short kind
+ *  8  int   sequence
+ * 12  int   epoch day of the transition
+ * 16  int   original ringer mode / DND filter
+ * 20  int   target ringer mode / DND filter
+ * 24  int   reserved
+ * 28  int   CRC32 of bytes 0..27
+ * </pre>
+ * A torn write fails the checksum and reads as no entry, which is safe because the
+ * intent is always on disk before the change it describes.
+ */
+public final class TransitionJournal {
+
+    private static final String TAG = "TransitionJournal";
+    private static final String FILE_NAME = "transition_journal.bin";
+
+    private static final int MAGIC = 0x444E444A; // "DNDJ"
+    private static final short VERSION = 1;
+    private static final int RECORD_SIZE = 32;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    public static final int KIND_RINGER_ON = 1;
+    public static final int KIND_DND_ON = 2;
+    public static final int KIND_RINGER_OFF = 3;
+    public static final int KIND_DND_OFF = 4;
+
+    /**
+     * One recorded intent
+     */
+    public static final class Entry {
+        public final int kind;
+        public final int seq;
+        public final int epochDay;
+        public final int originalValue;
+        public final int targetValue;
+
+        Entry(int kind, int seq, int epochDay, int originalValue, int targetValue) {
+            this.kind = kind;
+            this.seq = seq;
+            this.epochDay = epochDay;
+            this.originalValue = originalValue;
+            this.targetValue = targetValue;
+        }
+
+        public boolean isOn() {
+            return kind == KIND_RINGER_ON || kind == KIND_DND_ON;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{kind=" + kind + ", seq=" + seq + ", day=" + epochDay
+                    + ", original=" + originalValue + ", target=" + targetValue + "}";
+        }
+    }
+
+    private static TransitionJournal instance;
+
+    private final File file;
+
+    private TransitionJournal(Context context) {
+        this.file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+
+    public static synchronized TransitionJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransitionJournal(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Force an intent to disk. Returns false if it could not be written, in which case
+     * the caller should not apply the change.
+     */
+    public synchronized boolean writeIntent(Entry entry) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) entry.kind);
+        buffer.putInt(8, entry.seq);
+        buffer.putInt(12, entry.epochDay);
+        buffer.putInt(16, entry.originalValue);
+        buffer.putInt(20, entry.targetValue);
+        buffer.putInt(CRC_OFFSET, crc(buffer));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            Log.d(TAG, "Journaled " + entry);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write journal entry", e);
+            return false;
+        }
+    }
+
+    /**
+     * The last intent written, or null if there is none or it is unreadable
+     */
+    public synchronized Entry read() {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the record is complete or EOF
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal", e);
+            return null;
+        }
+        if (buffer.hasRemaining()
+                || buffer.getInt(CRC_OFFSET) != crc(buffer)
+                || buffer.getInt(0) != MAGIC
+                || buffer.getShort(4) != VERSION) {
+            Log.w(TAG, "Journal entry incomplete or unreadable, ignoring");
+            return null;
+        }
+        return new Entry(buffer.getShort(6), buffer.getInt(8), buffer.getInt(12),
+                buffer.getInt(16), buffer.getInt(20));
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CRC_OFFSET);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,238 @@
+package com.harish.dndscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed-size history of what the app did, kept in a memory-mapped ring buffer.
+ *
+ * Records are written with absolute puts straight into the mapping, so logging a
+ * transition allocates nothing and costs no syscall. The pages belong to the file,
+ * so the history survives the process being killed; only a power loss can drop the
+ * last few records.
+ *
+ * Header (32 bytes): magic, version, record size, capacity, total records written.
+ * Record (24 bytes, little endian):
+ * <pre>
+ *  0  long  timestamp (epoch millis)
+ *  8  byte  source
+ *  9  byte  action
+ * 10  byte  mode
+ * 11  byte  success (0/1)
+ * 12  int   latency in ms
+ * 16  int   detail (request code, ringer mode, ...)
+ * 20  int   sequence (low 32 bits), used to tell live slots from stale ones
+ * </pre>
+ */
+public final class TransitionLog {
+
+    private static final String TAG = "TransitionLog";
+    private static final String FILE_NAME = "transition_log.bin";
+
+    private static final int MAGIC = 0x444E444C; // "DNDL"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 24;
+    public static final int CAPACITY = 1024;
+    private static final int FILE_SIZE = HEADER_SIZE + CAPACITY * RECORD_SIZE;
+
+    private static final int HEADER_COUNT_OFFSET = 12;
+
+    // Trigger sources
+    public static final byte SOURCE_ALARM = 1;
+    public static final byte SOURCE_BACKUP_ALARM = 2;
+    public static final byte SOURCE_PERIODIC = 3;
+    public static final byte SOURCE_BOOT = 4;
+    public static final byte SOURCE_TIME_CHANGE = 5;
+    public static final byte SOURCE_SERVICE = 6;
+    public static final byte SOURCE_USER = 7;
+    public static final byte SOURCE_RECOVERY = 8;
+    public static final byte SOURCE_CHECK = 9;
+
+    // Actions
+    public static final byte ACTION_MODE_ON = 1;
+    public static final byte ACTION_MODE_OFF = 2;
+    public static final byte ACTION_CHECK = 3;
+    public static final byte ACTION_RESTORE = 4;
+    public static final byte ACTION_REPLAN = 5;
+    public static final byte ACTION_OVERRIDE = 6;
+    public static final byte ACTION_SERVICE_START = 7;
+    public static final byte ACTION_SERVICE_STOP = 8;
+    public static final byte ACTION_IGNORED = 9;
+
+    // Modes
+    public static final byte MODE_NONE = 0;
+    public static final byte MODE_DND = 1;
+    public static final byte MODE_VIBRATE = 2;
+    public static final byte MODE_SILENT = 3;
+
+    private static final String[] SOURCE_NAMES = {
+            "?", "alarm", "backup", "periodic", "boot", "time", "service", "user", "recovery", "check"
+    };
+    private static final String[] ACTION_NAMES = {
+            "?", "ON", "OFF", "check", "restore", "replan", "override", "svc-start", "svc-stop", "ignored"
+    };
+    private static final String[] MODE_NAMES = {"-", "dnd", "vibrate", "silent"};
+
+    /**
+     * One decoded record
+     */
+    public static final class Record {
+        public final long timestampMillis;
+        public final int source;
+        public final int action;
+        public final int mode;
+        public final boolean success;
+        public final int latencyMillis;
+        public final int detail;
+
+        Record(long timestampMillis, int source, int action, int mode, boolean success, int latencyMillis, int detail) {
+            this.timestampMillis = timestampMillis;
+            this.source = source;
+            this.action = action;
+            this.mode = mode;
+            this.success = success;
+            this.latencyMillis = latencyMillis;
+            this.detail = detail;
+        }
+    }
+
+    private static TransitionLog instance;
+
+    private final MappedByteBuffer buffer;
+    private long count;
+
+    private TransitionLog(Context context) throws IOException {
+        File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                || buffer.getShort(6) != RECORD_SIZE || buffer.getInt(8) != CAPACITY) {
+            // New file or a different layout - start an empty log
+            for (int i = 0; i < FILE_SIZE; i += 8) {
+                buffer.putLong(i, 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.putShort(6, (short) RECORD_SIZE);
+            buffer.putInt(8, CAPACITY);
+            buffer.putLong(HEADER_COUNT_OFFSET, 0);
+        }
+        count = buffer.getLong(HEADER_COUNT_OFFSET);
+    }
+
+    /**
+     * The shared log, or null if the file could not be mapped
+     */
+    public static synchronized TransitionLog getInstance(Context context) {
+        if (instance == null) {
+            try {
+                instance = new TransitionLog(context);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to map transition log", e);
+                return null;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Convenience for call sites: logs nothing if the log could not be opened
+     */
+    public static void record(Context context, byte source, byte action, byte mode,
+                              boolean success, long latencyMillis, int detail) {
+        TransitionLog log = getInstance(context);
+        if (log != null) {
+            log.append(source, action, mode, success, latencyMillis, detail);
+        }
+    }
+
+    public synchronized void append(byte source, byte action, byte mode,
+                                    boolean success, long latencyMillis, int detail) {
+        int offset = HEADER_SIZE + (int) (count % CAPACITY) * RECORD_SIZE;
+        buffer.putLong(offset, System.currentTimeMillis());
+        buffer.put(offset + 8, source);
+        buffer.put(offset + 9, action);
+        buffer.put(offset + 10, mode);
+        buffer.put(offset + 11, (byte) (success ? 1 : 0));
+        buffer.putInt(offset + 12, (int) Math.min(latencyMillis, Integer.MAX_VALUE));
+        buffer.putInt(offset + 16, detail);
+        buffer.putInt(offset + 20, (int) count);
+        // Publish the record only after it is complete
+        count++;
+        buffer.putLong(HEADER_COUNT_OFFSET, count);
+    }
+
+    public static byte modeOf(String silentModeType) {
+        if ("dnd".equals(silentModeType)) return MODE_DND;
+        if ("vibrate".equals(silentModeType)) return MODE_VIBRATE;
+        if ("silent".equals(silentModeType)) return MODE_SILENT;
+        return MODE_NONE;
+    }
+
+    /**
+     * Up to max most recent records, newest first
+     */
+    public synchronized List<Record> readRecent(int max) {
+        int available = (int) Math.min(count, CAPACITY);
+        int n = Math.min(max, available);
+        List<Record> records = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long seq = count - 1 - i;
+            int offset = HEADER_SIZE + (int) (seq % CAPACITY) * RECORD_SIZE;
+            if (buffer.getInt(offset + 20) != (int) seq) {
+                break; // slot was never completed
+            }
+            records.add(new Record(
+                    buffer.getLong(offset),
+                    buffer.get(offset + 8),
+                    buffer.get(offset + 9),
+                    buffer.get(offset + 10),
+                    buffer.get(offset + 11) != 0,
+                    buffer.getInt(offset + 12),
+                    buffer.getInt(offset + 16)));
+        }
+        return records;
+    }
+
+    public static String format(Record record) {
+        String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault())
+                .format(new Date(record.timestampMillis));
+        return time + "  " + name(SOURCE_NAMES, record.source) + " " + name(ACTION_NAMES, record.action)
+                + " [" + name(MODE_NAMES, record.mode) + "] "
+                + (record.success ? "ok" : "FAILED") + " " + record.latencyMillis + "ms"
+                + (record.detail != 0 ? " #" + record.detail : "");
+    }
+
+    /**
+     * Recent history as plain text, newest first, for display and export
+     */
+    public String dump(int max) {
+        StringBuilder sb = new StringBuilder();
+        for (Record record : readRecent(max)) {
+            sb.append(format(record)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String name(String[] names, int index) {
+        return index >= 0 && index < names.length ? names[index] : String.valueOf(index);
+    }
+}
@@ -0,0 +1,68 @@
+package com.harish.dndscheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AlarmSchedulersTest {
+
+    @After
+    public void tearDown() {
+        AlarmSchedulers.setOverrideForTesting(null);
+    }
+
+    @Test
+    public void classStart_usesAlarmClockWhenExactAllowed() {
+        AlarmScheduler scheduler = AlarmSchedulers.choose(null, null,
+                AlarmScheduler.Tolerance.CRITICAL, true, false);
+        assertTrue(scheduler instanceof AlarmSchedulers.AlarmClockScheduler);
+    }
+
+    @Test
+    public void classStart_fallsBackToTenMinuteWindowWithoutExact() {
+        AlarmScheduler scheduler = AlarmSchedulers.choose(null, null,
+                AlarmScheduler.Tolerance.CRITICAL, false, false);
+        assertTrue(scheduler instanceof AlarmSchedulers.WindowedScheduler);
+        assertEquals("setWindow(600s)", scheduler.getName());
+    }
+
+    @Test
+    public void classEnd_goesExactOnlyUnderBatterySaver() {
+        assertTrue(AlarmSchedulers.choose(null, null, AlarmScheduler.Tolerance.TOLERANT, true, true)
+                instanceof AlarmSchedulers.ExactIdleScheduler);
+        assertTrue(AlarmSchedulers.choose(null, null, AlarmScheduler.Tolerance.TOLERANT, true, false)
+                instanceof AlarmSchedulers.WindowedScheduler);
+        assertTrue(AlarmSchedulers.choose(null, null, AlarmScheduler.Tolerance.TOLERANT, false, true)
+                instanceof AlarmSchedulers.WindowedScheduler);
+    }
+
+    @Test
+    public void housekeeping_isInexact() {
+        assertTrue(AlarmSchedulers.choose(null, null, AlarmScheduler.Tolerance.HOUSEKEEPING, true, true)
+                instanceof AlarmSchedulers.InexactScheduler);
+    }
+
+    @Test
+    public void toleranceForAction_mapsDndActions() {
+        assertEquals(AlarmScheduler.Tolerance.CRITICAL, AlarmSchedulers.toleranceForAction("TURN_ON_DND_1"));
+        assertEquals(AlarmScheduler.Tolerance.TOLERANT, AlarmSchedulers.toleranceForAction("TURN_OFF_DND_1"));
+        assertEquals(AlarmScheduler.Tolerance.HOUSEKEEPING, AlarmSchedulers.toleranceForAction("PERIODIC_CHECK"));
+        assertEquals(AlarmScheduler.Tolerance.HOUSEKEEPING, AlarmSchedulers.toleranceForAction(null));
+    }
+
+    @Test
+    public void override_replacesRealSchedulers() {
+        FakeAlarmScheduler fake = new FakeAlarmScheduler();
+        AlarmSchedulers.setOverrideForTesting(fake);
+
+        AlarmScheduler scheduler = AlarmSchedulers.forTransition(null, AlarmScheduler.Tolerance.CRITICAL);
+        scheduler.schedule(5000, null);
+        scheduler.cancel(null);
+
+        assertSame(fake, scheduler);
+        assertEquals(1, fake.getScheduled().size());
+        assertEquals(5000, fake.getScheduled().get(0).triggerAtMillis);
+        assertEquals(1, fake.getCancelled().size());
+    }
+}
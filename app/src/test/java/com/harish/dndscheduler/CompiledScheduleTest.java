@@ -0,0 +1,122 @@
+package com.harish.dndscheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class CompiledScheduleTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Kolkata");
+
+    private TimeZone savedZone;
+
+    @Before
+    public void setUp() {
+        savedZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(ZONE));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(savedZone);
+    }
+
+    private static ClassTimeSlot slot(DayOfWeek day, int startHour, int endHour) {
+        return new ClassTimeSlot(day, LocalTime.of(startHour, 0), LocalTime.of(endHour, 0), "Subject");
+    }
+
+    private static ZonedDateTime at(int day, int hour, int minute) {
+        // 2024-03-04 is a Monday
+        return ZonedDateTime.of(LocalDateTime.of(2024, 3, day, hour, minute), ZONE);
+    }
+
+    private static long millis(int day, int hour, int minute) {
+        return at(day, hour, minute).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void compile_copiesFollowedDayOntoSaturday() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, 10),
+                slot(DayOfWeek.TUESDAY, 11, 12)), "Tuesday");
+
+        assertEquals(3, schedule.getIntervals().size());
+        CompiledSchedule.Interval saturday = schedule.getIntervals().get(2);
+        assertEquals(DayOfWeek.SATURDAY, saturday.day);
+        assertEquals(LocalTime.of(11, 0), saturday.start);
+    }
+
+    @Test
+    public void compile_holidaySaturdayAddsNothing() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, 10)), "None (Holiday)");
+        assertEquals(1, schedule.getIntervals().size());
+    }
+
+    @Test
+    public void isInClass_startInclusiveEndExclusive() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, 10)), "None (Holiday)");
+
+        assertFalse(schedule.isInClass(at(4, 8, 59)));
+        assertTrue(schedule.isInClass(at(4, 9, 0)));
+        assertTrue(schedule.isInClass(at(4, 9, 59)));
+        assertFalse(schedule.isInClass(at(4, 10, 0)));
+        // Same time on another day
+        assertFalse(schedule.isInClass(at(5, 9, 30)));
+    }
+
+    @Test
+    public void nextTransition_picksEarliestEdge() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, 10),
+                slot(DayOfWeek.WEDNESDAY, 14, 15)), "None (Holiday)");
+
+        CompiledSchedule.Transition during = schedule.nextTransition(millis(4, 9, 30));
+        assertFalse(during.isStart);
+        assertEquals(millis(4, 10, 0), during.triggerAtMillis);
+
+        CompiledSchedule.Transition after = schedule.nextTransition(millis(4, 10, 0));
+        assertTrue(after.isStart);
+        assertEquals(DayOfWeek.WEDNESDAY, after.day);
+        assertEquals(millis(6, 14, 0), after.triggerAtMillis);
+    }
+
+    @Test
+    public void nextTransition_emptyScheduleHasNone() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.<ClassTimeSlot>asList(), "Monday");
+        assertTrue(schedule.isEmpty());
+        assertNull(schedule.nextTransition(millis(4, 9, 0)));
+    }
+
+    @Test
+    public void transitionsBetween_coversEveryWeekInRangeSorted() {
+        CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, 10),
+                slot(DayOfWeek.TUESDAY, 11, 12)), "None (Holiday)");
+
+        // (Mon 09:00, Mon+7 09:00] - the start at the lower bound is excluded, the one at the upper included
+        List<CompiledSchedule.Transition> transitions =
+                schedule.transitionsBetween(millis(4, 9, 0), millis(11, 9, 0));
+
+        assertEquals(4, transitions.size());
+        assertEquals(millis(4, 10, 0), transitions.get(0).triggerAtMillis);
+        assertEquals(millis(5, 11, 0), transitions.get(1).triggerAtMillis);
+        assertEquals(millis(5, 12, 0), transitions.get(2).triggerAtMillis);
+        assertEquals(millis(11, 9, 0), transitions.get(3).triggerAtMillis);
+        for (int i = 1; i < transitions.size(); i++) {
+            assertTrue(transitions.get(i - 1).triggerAtMillis <= transitions.get(i).triggerAtMillis);
+        }
+    }
+}
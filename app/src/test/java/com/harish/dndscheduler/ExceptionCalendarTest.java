@@ -0,0 +1,113 @@
+package com.harish.dndscheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ExceptionCalendarTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Kolkata");
+
+    private File file;
+    private ExceptionCalendar calendar;
+    private LocalDate monday;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("exception_calendar", ".bin");
+        file.delete();
+        calendar = new ExceptionCalendar(file);
+        // Entries far in the past are pruned on edit, so work a few weeks ahead
+        monday = LocalDate.now().plusWeeks(3).with(DayOfWeek.MONDAY);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private CompiledSchedule.Transition weekly(LocalDate date, int hour, int minute, boolean isStart) {
+        LocalTime time = LocalTime.of(hour, minute);
+        return new CompiledSchedule.Transition(date.getDayOfWeek(), time, isStart,
+                date.atTime(time).atZone(ZONE).toInstant().toEpochMilli());
+    }
+
+    @Test
+    public void holiday_skipsEveryTransitionThatDay() {
+        assertTrue(calendar.add(ExceptionCalendar.Entry.holiday(monday, "Holiday")));
+
+        assertTrue(calendar.isHoliday((int) monday.toEpochDay()));
+        assertTrue(calendar.isSkipped(weekly(monday, 9, 0, true), ZONE));
+        assertTrue(calendar.isSkipped(weekly(monday, 16, 0, false), ZONE));
+        assertFalse(calendar.isSkipped(weekly(monday.plusDays(1), 9, 0, true), ZONE));
+        assertEquals(Boolean.FALSE, calendar.inClassOverride(monday, LocalTime.of(12, 0)));
+    }
+
+    @Test
+    public void cancelled_skipsOnlyThatClass() {
+        calendar.add(ExceptionCalendar.Entry.cancelled(monday, LocalTime.of(9, 0), LocalTime.of(10, 0), "Maths"));
+
+        assertTrue(calendar.isSkipped(weekly(monday, 9, 0, true), ZONE));
+        assertTrue(calendar.isSkipped(weekly(monday, 10, 0, false), ZONE));
+        assertFalse(calendar.isSkipped(weekly(monday, 11, 0, true), ZONE));
+        assertEquals(Boolean.FALSE, calendar.inClassOverride(monday, LocalTime.of(9, 30)));
+        assertNull(calendar.inClassOverride(monday, LocalTime.of(10, 0)));
+    }
+
+    @Test
+    public void extra_winsOverHolidayAndProducesTransitions() {
+        calendar.add(ExceptionCalendar.Entry.holiday(monday, "Holiday"));
+        ExceptionCalendar.Entry extra = ExceptionCalendar.Entry.extra(monday, LocalTime.of(15, 0), LocalTime.of(16, 0), "Extra");
+        calendar.add(extra);
+
+        assertEquals(Boolean.TRUE, calendar.inClassOverride(monday, LocalTime.of(15, 30)));
+        assertEquals(Boolean.FALSE, calendar.inClassOverride(monday, LocalTime.of(16, 0)));
+
+        long dayStart = monday.atStartOfDay(ZONE).toInstant().toEpochMilli();
+        List<CompiledSchedule.Transition> transitions =
+                calendar.extraTransitions(dayStart, dayStart + 24L * 60 * 60 * 1000, ZONE);
+        assertEquals(2, transitions.size());
+        for (CompiledSchedule.Transition transition : transitions) {
+            assertTrue(transition.isExtra);
+        }
+        assertEquals(2, ExceptionCalendar.transitionsOf(extra, ZONE).size());
+        assertTrue(ExceptionCalendar.transitionsOf(
+                ExceptionCalendar.Entry.holiday(monday, "Holiday"), ZONE).isEmpty());
+    }
+
+    @Test
+    public void lookup_findsEntriesOnlyOnTheirDay() {
+        for (int i = 0; i < 20; i += 2) {
+            calendar.add(ExceptionCalendar.Entry.holiday(monday.plusDays(i), "Holiday " + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 0, calendar.isHoliday((int) monday.plusDays(i).toEpochDay()));
+            assertEquals(i % 2 == 0 ? 1 : 0, calendar.entriesOn((int) monday.plusDays(i).toEpochDay()).size());
+        }
+        assertEquals(5, calendar.getUpcoming((int) monday.plusDays(10).toEpochDay()).size());
+    }
+
+    @Test
+    public void addRemove_persistAcrossLoads() {
+        ExceptionCalendar.Entry holiday = ExceptionCalendar.Entry.holiday(monday, "Holiday");
+        assertTrue(calendar.add(holiday));
+        assertFalse(calendar.add(holiday));
+
+        assertTrue(new ExceptionCalendar(file).isHoliday((int) monday.toEpochDay()));
+
+        assertTrue(calendar.remove(holiday));
+        assertFalse(calendar.remove(holiday));
+        assertFalse(new ExceptionCalendar(file).isHoliday((int) monday.toEpochDay()));
+    }
+}
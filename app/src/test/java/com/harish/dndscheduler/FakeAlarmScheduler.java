@@ -0,0 +1,61 @@
+package com.harish.dndscheduler;
+
+import android.app.PendingIntent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory AlarmScheduler for unit tests.
+ *
+ * Install with {@link AlarmSchedulers#setOverrideForTesting(AlarmScheduler)} and
+ * inspect {@link #getScheduled()} instead of talking to the real AlarmManager.
+ */
+public class FakeAlarmScheduler implements AlarmScheduler {
+
+    public static class ScheduledAlarm {
+        public final long triggerAtMillis;
+        public final PendingIntent operation;
+
+        ScheduledAlarm(long triggerAtMillis, PendingIntent operation) {
+            this.triggerAtMillis = triggerAtMillis;
+            this.operation = operation;
+        }
+    }
+
+    private final List<ScheduledAlarm> scheduled = new ArrayList<>();
+    private final List<PendingIntent> cancelled = new ArrayList<>();
+
+    @Override
+    public synchronized void schedule(long triggerAtMillis, PendingIntent operation) {
+        scheduled.add(new ScheduledAlarm(triggerAtMillis, operation));
+    }
+
+    @Override
+    public synchronized void cancel(PendingIntent operation) {
+        cancelled.add(operation);
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    public synchronized List<ScheduledAlarm> getScheduled() {
+        return new ArrayList<>(scheduled);
+    }
+
+    public synchronized List<PendingIntent> getCancelled() {
+        return new ArrayList<>(cancelled);
+    }
+
+    public synchronized void reset() {
+        scheduled.clear();
+        cancelled.clear();
+    }
+}
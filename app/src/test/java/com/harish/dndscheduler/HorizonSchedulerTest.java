@@ -0,0 +1,148 @@
+package com.harish.dndscheduler;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class HorizonSchedulerTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Kolkata");
+
+    private static CompiledSchedule.Transition transition(LocalDateTime at, boolean isStart) {
+        ZonedDateTime zoned = at.atZone(ZONE);
+        return new CompiledSchedule.Transition(zoned.getDayOfWeek(), zoned.toLocalTime(), isStart,
+                zoned.toInstant().toEpochMilli());
+    }
+
+    @Test
+    public void requestCode_uniqueAcrossTwoWeeks() {
+        // Every minute of two consecutive weeks, starts and ends
+        LocalDateTime monday = LocalDateTime.of(2024, 3, 4, 0, 0);
+        Set<Integer> codes = new HashSet<>();
+        for (int minute = 0; minute < 2 * 7 * 24 * 60; minute++) {
+            LocalDateTime at = monday.plusMinutes(minute);
+            assertTrue(codes.add(HorizonScheduler.requestCode(transition(at, true), ZONE)));
+            assertTrue(codes.add(HorizonScheduler.requestCode(transition(at, false), ZONE)));
+        }
+        // Clear of the periodic check alarm and its backup
+        assertFalse(codes.contains(9999));
+        assertFalse(codes.contains(19999));
+    }
+
+    @Test
+    public void requestCode_legacyCollisionResolved() {
+        // Old codes used hour * 100 + minute * 10, so 1:10 and 2:00 collided
+        LocalDateTime tenPastOne = LocalDateTime.of(2024, 3, 4, 1, 10);
+        LocalDateTime two = LocalDateTime.of(2024, 3, 4, 2, 0);
+        assertNotEquals(HorizonScheduler.requestCode(transition(tenPastOne, true), ZONE),
+                HorizonScheduler.requestCode(transition(two, true), ZONE));
+    }
+
+    @Test
+    public void requestCode_alternatesWeekly() {
+        LocalDateTime thisWeek = LocalDateTime.of(2024, 3, 6, 9, 0);
+        int code = HorizonScheduler.requestCode(transition(thisWeek, true), ZONE);
+        assertNotEquals(code, HorizonScheduler.requestCode(transition(thisWeek.plusWeeks(1), true), ZONE));
+        assertEquals(code, HorizonScheduler.requestCode(transition(thisWeek.plusWeeks(2), true), ZONE));
+    }
+
+    @Test
+    public void requestCode_weeksStartOnMonday() {
+        // A Monday and the following Sunday share the week half of the code, the next Monday does not
+        int monday = HorizonScheduler.requestCode(transition(LocalDateTime.of(2024, 3, 4, 9, 0), true), ZONE);
+        int sunday = HorizonScheduler.requestCode(transition(LocalDateTime.of(2024, 3, 10, 9, 0), true), ZONE);
+        int nextMonday = HorizonScheduler.requestCode(transition(LocalDateTime.of(2024, 3, 11, 9, 0), true), ZONE);
+        assertEquals(6 * 24 * 60 * 2, sunday - monday);
+        assertNotEquals(monday, nextMonday);
+    }
+
+    @Test
+    public void requestCode_extrasHaveTheirOwnRange() {
+        LocalDateTime monday = LocalDateTime.of(2024, 3, 4, 0, 0);
+        Set<Integer> weeklyCodes = new HashSet<>();
+        for (int minute = 0; minute < 2 * 7 * 24 * 60; minute++) {
+            weeklyCodes.add(HorizonScheduler.requestCode(transition(monday.plusMinutes(minute), true), ZONE));
+            weeklyCodes.add(HorizonScheduler.requestCode(transition(monday.plusMinutes(minute), false), ZONE));
+        }
+        Set<Integer> extraCodes = new HashSet<>();
+        for (int minute = 0; minute < 16 * 24 * 60; minute += 5) {
+            LocalDateTime at = monday.plusMinutes(minute);
+            assertTrue(extraCodes.add(HorizonScheduler.requestCode(extra(at, true), ZONE)));
+            assertTrue(extraCodes.add(HorizonScheduler.requestCode(extra(at, false), ZONE)));
+        }
+        for (int code : extraCodes) {
+            assertFalse(weeklyCodes.contains(code));
+        }
+    }
+
+    @Test
+    public void dropHandOffs_adjacentPeriodsKeepDndOn() {
+        TimeZone savedZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(ZONE));
+        try {
+            // 9:00-10:00 and 10:00-11:00 stay two intervals after compiling
+            CompiledSchedule schedule = CompiledSchedule.compile(Arrays.asList(
+                    new ClassTimeSlot(DayOfWeek.MONDAY, LocalTime.of(9, 0), LocalTime.of(10, 0), "Maths"),
+                    new ClassTimeSlot(DayOfWeek.MONDAY, LocalTime.of(10, 0), LocalTime.of(11, 0), "Physics")), "");
+            long monday = LocalDateTime.of(2024, 3, 4, 0, 0).atZone(ZONE).toInstant().toEpochMilli();
+            List<CompiledSchedule.Transition> all = schedule.transitionsBetween(monday, monday + 24L * 60 * 60 * 1000);
+            assertEquals(4, all.size());
+
+            List<CompiledSchedule.Transition> dropped = new ArrayList<>();
+            List<CompiledSchedule.Transition> planned = HorizonScheduler.dropHandOffs(all, dropped);
+            assertEquals(3, planned.size());
+            assertTrue(planned.get(0).isStart);
+            assertEquals(LocalTime.of(10, 0), planned.get(1).time);
+            assertTrue(planned.get(1).isStart);
+            assertFalse(planned.get(2).isStart);
+            assertEquals(LocalTime.of(11, 0), planned.get(2).time);
+
+            assertEquals(1, dropped.size());
+            assertFalse(dropped.get(0).isStart);
+            assertEquals(LocalTime.of(10, 0), dropped.get(0).time);
+        } finally {
+            TimeZone.setDefault(savedZone);
+        }
+    }
+
+    @Test
+    public void dropHandOffs_keepsEndWithoutNextStart() {
+        LocalDateTime nine = LocalDateTime.of(2024, 3, 4, 9, 0);
+        List<CompiledSchedule.Transition> transitions = Arrays.asList(
+                transition(nine, true), transition(nine.plusHours(1), false),
+                transition(nine.plusHours(1).plusMinutes(10), true), transition(nine.plusHours(2), false));
+        assertEquals(transitions, HorizonScheduler.dropHandOffs(transitions, null));
+    }
+
+    @Test
+    public void isLateDelivery_onlyPastTheStrategysWindow() {
+        long minute = 60 * 1000;
+        // Exact alarms: a few minutes late is late
+        assertFalse(HorizonScheduler.isLateDelivery(90 * 1000, 0));
+        assertTrue(HorizonScheduler.isLateDelivery(3 * minute, 0));
+        // Class end windows: anywhere inside the window is on time
+        assertFalse(HorizonScheduler.isLateDelivery(4 * minute, AlarmSchedulers.TOLERANT_WINDOW_MS));
+        assertFalse(HorizonScheduler.isLateDelivery(9 * minute, AlarmSchedulers.CRITICAL_FALLBACK_WINDOW_MS));
+        assertTrue(HorizonScheduler.isLateDelivery(13 * minute, AlarmSchedulers.CRITICAL_FALLBACK_WINDOW_MS));
+        // No bound at all is never late
+        assertFalse(HorizonScheduler.isLateDelivery(24 * 60 * minute, Long.MAX_VALUE));
+    }
+
+    private static CompiledSchedule.Transition extra(LocalDateTime at, boolean isStart) {
+        ZonedDateTime zoned = at.atZone(ZONE);
+        return new CompiledSchedule.Transition(zoned.getDayOfWeek(), zoned.toLocalTime(), isStart,
+                zoned.toInstant().toEpochMilli(), true);
+    }
+}
@@ -0,0 +1,128 @@
+package com.harish.dndscheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private static final Request GET = new Request.Builder().url("https://example.com/").build();
+    private static final Request POST = new Request.Builder().url("https://example.com/")
+            .post(RequestBody.create(new byte[0], null)).build();
+
+    private long now;
+    private RetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        policy = new RetryPolicy(() -> now);
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(policy.allowRequest());
+            policy.onFailure();
+        }
+    }
+
+    @Test
+    public void onlyIdempotentRequestsRetry() {
+        policy.startSession();
+        assertTrue(policy.shouldRetry(GET, 1));
+        assertFalse(policy.shouldRetry(POST, 1));
+        assertFalse(policy.shouldRetry(GET, RetryPolicy.MAX_ATTEMPTS));
+    }
+
+    @Test
+    public void retryBudgetIsPerSession() {
+        policy.startSession();
+        int granted = 0;
+        while (policy.shouldRetry(GET, 1)) {
+            granted++;
+            assertTrue("budget never ran out", granted < 100);
+        }
+        assertEquals(4, granted);
+
+        policy.startSession();
+        assertTrue(policy.shouldRetry(GET, 1));
+    }
+
+    @Test
+    public void breakerOpensAfterConsecutiveFailuresAndFailsFast() {
+        openCircuit();
+        assertFalse(policy.allowRequest());
+        assertFalse(policy.shouldRetry(GET, 1));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        for (int i = 0; i < 3; i++) {
+            policy.onFailure();
+        }
+        policy.onSuccess();
+        for (int i = 0; i < 3; i++) {
+            policy.onFailure();
+        }
+        assertTrue(policy.allowRequest());
+    }
+
+    @Test
+    public void halfOpenLetsOneTrialThrough() {
+        openCircuit();
+        now += 30_000;
+        assertTrue(policy.allowRequest());
+        assertFalse(policy.allowRequest());
+
+        policy.onSuccess();
+        assertTrue(policy.allowRequest());
+        assertTrue(policy.allowRequest());
+    }
+
+    @Test
+    public void failedTrialDoublesTheCooldown() {
+        openCircuit();
+        now += 30_000;
+        assertTrue(policy.allowRequest());
+        // e.g. the trial timed out
+        policy.onFailure();
+
+        now += 30_000;
+        assertFalse(policy.allowRequest());
+        now += 30_000;
+        assertTrue(policy.allowRequest());
+    }
+
+    @Test
+    public void cancelledTrialIsNeutral() {
+        openCircuit();
+        now += 30_000;
+        assertTrue(policy.allowRequest());
+        policy.onCancelled();
+        // Another trial may go, the cooldown did not grow
+        assertTrue(policy.allowRequest());
+    }
+
+    @Test
+    public void backoffStaysWithinJitterBounds() {
+        long previous = 0;
+        for (int i = 0; i < 1000; i++) {
+            long backoff = RetryPolicy.nextBackoffMs(previous);
+            assertTrue(backoff >= 500);
+            assertTrue(backoff <= Math.min(8_000, Math.max(500, previous) * 3));
+            previous = backoff;
+        }
+    }
+
+    @Test
+    public void serverTroubleCodes() {
+        assertTrue(RetryPolicy.isServerTrouble(429));
+        assertTrue(RetryPolicy.isServerTrouble(503));
+        assertFalse(RetryPolicy.isServerTrouble(404));
+        assertFalse(RetryPolicy.isServerTrouble(200));
+    }
+}
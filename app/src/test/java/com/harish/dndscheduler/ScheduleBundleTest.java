@@ -0,0 +1,64 @@
+package com.harish.dndscheduler;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScheduleBundleTest {
+
+    private static final List<ClassTimeSlot> SLOTS = Arrays.asList(
+            new ClassTimeSlot(DayOfWeek.MONDAY, LocalTime.of(9, 0), LocalTime.of(9, 50), "Maths"),
+            new ClassTimeSlot(DayOfWeek.THURSDAY, LocalTime.of(14, 10), LocalTime.of(15, 0), "Lab"));
+
+    private static byte[] bundleBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ScheduleBundle(1234L, true, "vibrate", "Tuesday", SLOTS).writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ScheduleBundle bundle = ScheduleBundle.readFrom(new ByteArrayInputStream(bundleBytes()));
+        assertEquals(1234L, bundle.exportedAtMillis);
+        assertTrue(bundle.schedulingEnabled);
+        assertEquals("vibrate", bundle.silentModeType);
+        assertEquals("Tuesday", bundle.saturdayFollows);
+        assertEquals(SLOTS, bundle.slots);
+    }
+
+    @Test
+    public void everyCorruptByteIsRejectedWithIOException() throws IOException {
+        byte[] valid = bundleBytes();
+        for (int i = 0; i < valid.length; i++) {
+            byte[] damaged = valid.clone();
+            damaged[i] ^= 0x5A;
+            try {
+                ScheduleBundle.readFrom(new ByteArrayInputStream(damaged));
+                fail("Accepted a bundle damaged at byte " + i);
+            } catch (IOException expected) {
+                // ok - RuntimeExceptions would escape the catch blocks of the callers
+            }
+        }
+    }
+
+    @Test
+    public void truncatedBundleIsRejected() throws IOException {
+        byte[] valid = bundleBytes();
+        for (int length = 0; length < valid.length; length++) {
+            try {
+                ScheduleBundle.readFrom(new ByteArrayInputStream(Arrays.copyOf(valid, length)));
+                fail("Accepted a bundle cut at " + length + " bytes");
+            } catch (IOException expected) {
+                // ok
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.harish.dndscheduler;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+public class ScheduleClockTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/London");
+
+    private static ZonedDateTime at(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(LocalDateTime.of(year, month, day, hour, minute), ZONE);
+    }
+
+    @Test
+    public void nextOccurrence_laterTheSameDay() {
+        // Monday 2024-03-04 08:00
+        ZonedDateTime next = ScheduleClock.nextOccurrence(DayOfWeek.MONDAY, LocalTime.of(9, 0),
+                at(2024, 3, 4, 8, 0).toInstant(), ZONE);
+        assertEquals(at(2024, 3, 4, 9, 0), next);
+    }
+
+    @Test
+    public void nextOccurrence_isStrictlyAfter() {
+        ZonedDateTime next = ScheduleClock.nextOccurrence(DayOfWeek.MONDAY, LocalTime.of(9, 0),
+                at(2024, 3, 4, 9, 0).toInstant(), ZONE);
+        assertEquals(at(2024, 3, 11, 9, 0), next);
+    }
+
+    @Test
+    public void nextOccurrence_laterInTheWeek() {
+        ZonedDateTime next = ScheduleClock.nextOccurrence(DayOfWeek.FRIDAY, LocalTime.of(14, 30),
+                at(2024, 3, 4, 8, 0).toInstant(), ZONE);
+        assertEquals(at(2024, 3, 8, 14, 30), next);
+    }
+
+    @Test
+    public void nextOccurrence_inDstGapIsShiftedForward() {
+        // Clocks go forward at 01:00 on Sunday 2024-03-31; 01:30 does not exist
+        ZonedDateTime next = ScheduleClock.nextOccurrence(DayOfWeek.SUNDAY, LocalTime.of(1, 30),
+                at(2024, 3, 30, 12, 0).toInstant(), ZONE);
+        assertEquals(LocalTime.of(2, 30), next.toLocalTime());
+        assertEquals(31, next.getDayOfMonth());
+    }
+
+    @Test
+    public void nextOccurrence_keepsWallClockAcrossDst() {
+        ZonedDateTime before = ScheduleClock.nextOccurrence(DayOfWeek.MONDAY, LocalTime.of(9, 0),
+                at(2024, 3, 25, 10, 0).toInstant(), ZONE);
+        assertEquals(at(2024, 4, 1, 9, 0), before);
+        assertEquals(LocalTime.of(9, 0), before.toLocalTime());
+    }
+
+    @Test
+    public void minuteOfDay_roundTrips() {
+        for (int minute = 0; minute < 24 * 60; minute += 7) {
+            assertEquals(minute, ScheduleClock.minuteOfDay(ScheduleClock.fromMinuteOfDay(minute)));
+        }
+    }
+
+    @Test
+    public void calendarDay_roundTrips() {
+        assertEquals(Calendar.SUNDAY, ScheduleClock.toCalendarDay(DayOfWeek.SUNDAY));
+        assertEquals(Calendar.MONDAY, ScheduleClock.toCalendarDay(DayOfWeek.MONDAY));
+        assertEquals(Calendar.SATURDAY, ScheduleClock.toCalendarDay(DayOfWeek.SATURDAY));
+        for (DayOfWeek day : DayOfWeek.values()) {
+            assertEquals(day, ScheduleClock.fromCalendarDay(ScheduleClock.toCalendarDay(day)));
+        }
+    }
+
+    @Test
+    public void fromDayName_holidayIsNull() {
+        assertEquals(DayOfWeek.WEDNESDAY, ScheduleClock.fromDayName("Wednesday"));
+        assertNull(ScheduleClock.fromDayName("None (Holiday)"));
+    }
+}
@@ -0,0 +1,99 @@
+package com.harish.dndscheduler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.*;
+
+public class TimetableExtractorTest {
+
+    private static final String TABLE = "<table cellspacing=\"1\" class=\"tt\"><tr><td>Mon</td></tr></table>";
+
+    /**
+     * Hands out the page a few bytes per read, so markers straddle read boundaries
+     */
+    private static final class ChunkedSource implements Source {
+        private final Buffer data;
+        private final int chunk;
+
+        ChunkedSource(String page, int chunk) {
+            this.data = new Buffer().writeUtf8(page);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            if (data.size() == 0) {
+                return -1;
+            }
+            long count = Math.min(Math.min(chunk, byteCount), data.size());
+            sink.write(data, count);
+            return count;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String extract(String page, int chunk) throws IOException {
+        BufferedSource source = Okio.buffer(new ChunkedSource(page, chunk));
+        return TimetableExtractor.extractTable(source, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void findsTableAnywhereInPage() throws IOException {
+        String page = "<html><table id=\"nav\"></table>" + TABLE + "<footer>x</footer></html>";
+        assertEquals(TABLE, extract(page, 8192));
+    }
+
+    @Test
+    public void markersSplitAcrossReads() throws IOException {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            padding.append((char) ('a' + i % 26));
+        }
+        String page = "<html>" + padding + TABLE + padding + "</html>";
+        for (int chunk = 1; chunk <= 40; chunk++) {
+            assertEquals("chunk " + chunk, TABLE, extract(page, chunk));
+        }
+    }
+
+    @Test
+    public void stopsReadingAfterTable() throws IOException {
+        StringBuilder rest = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            rest.append('x');
+        }
+        ChunkedSource upstream = new ChunkedSource(TABLE + rest, 16);
+        BufferedSource source = Okio.buffer(upstream);
+        assertEquals(TABLE, TimetableExtractor.extractTable(source, StandardCharsets.UTF_8));
+        // At most the read that carried </table> went past it
+        assertTrue(upstream.data.size() > rest.length() - 16);
+    }
+
+    @Test
+    public void missingTableOrEndIsNull() throws IOException {
+        assertNull(extract("<html><body>Session expired</body></html>", 7));
+        assertNull(extract("<html>" + "<table cellspacing=\"1\"><tr><td>cut off", 7));
+        assertNull(extract("", 7));
+    }
+
+    @Test
+    public void partialStartMarkerIsNotATable() throws IOException {
+        assertNull(extract("<table cellspacing=\"2\"><tr></tr></table>", 3));
+    }
+}
@@ -0,0 +1,127 @@
+package com.harish.dndscheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimetableHistoryTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("timetable_history", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static ClassTimeSlot slot(DayOfWeek day, int startHour, String subject) {
+        return new ClassTimeSlot(day, LocalTime.of(startHour, 0), LocalTime.of(startHour + 1, 0), subject);
+    }
+
+    private static List<ClassTimeSlot> week(int variant) {
+        return Arrays.asList(
+                slot(DayOfWeek.MONDAY, 9, "Maths"),
+                slot(DayOfWeek.TUESDAY, 10, "Physics " + variant),
+                slot(DayOfWeek.FRIDAY, 14, "Lab"));
+    }
+
+    @Test
+    public void record_emptyIsRefused() {
+        TimetableHistory history = new TimetableHistory(file);
+        assertEquals(0, history.record(Collections.<ClassTimeSlot>emptyList()));
+        assertTrue(history.isEmpty());
+        assertNull(history.getActiveSlots());
+    }
+
+    @Test
+    public void record_unchangedTimetableAddsNoVersion() {
+        TimetableHistory history = new TimetableHistory(file);
+        assertEquals(1, history.record(week(1)));
+        assertEquals(1, history.record(week(1)));
+        assertEquals(1, history.getLatestVersion());
+    }
+
+    @Test
+    public void record_diffReplaysToEachVersion() {
+        TimetableHistory history = new TimetableHistory(file);
+        history.record(week(1));
+        List<ClassTimeSlot> second = new ArrayList<>(week(2));
+        second.add(slot(DayOfWeek.WEDNESDAY, 11, "Chemistry"));
+        history.record(second);
+        List<ClassTimeSlot> third = Arrays.asList(slot(DayOfWeek.THURSDAY, 8, "Biology"));
+        history.record(third);
+
+        assertEquals(3, history.getActiveVersion());
+        assertEquals(third, history.getActiveSlots());
+        assertEquals(sortedByDay(week(1)), history.getSlots(1));
+        assertEquals(sortedByDay(second), history.getSlots(2));
+        assertEquals(4, history.getVersions().get(1).slotCount);
+    }
+
+    @Test
+    public void setActiveVersion_rollsBackWithoutNewVersion() {
+        TimetableHistory history = new TimetableHistory(file);
+        history.record(week(1));
+        history.record(week(2));
+
+        assertTrue(history.setActiveVersion(1));
+        assertEquals(week(1), history.getActiveSlots());
+        assertEquals(2, history.getLatestVersion());
+        assertFalse(history.setActiveVersion(5));
+    }
+
+    @Test
+    public void record_foldsOldestIntoBaseWhenFull() {
+        TimetableHistory history = new TimetableHistory(file);
+        for (int i = 1; i <= TimetableHistory.MAX_VERSIONS + 2; i++) {
+            history.record(week(i));
+        }
+        List<TimetableHistory.Version> versions = history.getVersions();
+        assertEquals(TimetableHistory.MAX_VERSIONS, versions.size());
+        int oldest = versions.get(versions.size() - 1).id;
+        assertEquals(3, oldest);
+        assertNull(history.getSlots(2));
+        assertEquals(week(3), history.getSlots(3));
+        assertEquals(week(TimetableHistory.MAX_VERSIONS + 2), history.getActiveSlots());
+    }
+
+    @Test
+    public void load_roundTripsEveryVersionAndActive() {
+        TimetableHistory history = new TimetableHistory(file);
+        history.record(week(1));
+        history.record(week(2));
+        history.record(Arrays.asList(slot(DayOfWeek.SATURDAY, 12, "")));
+        history.setActiveVersion(2);
+
+        TimetableHistory reloaded = new TimetableHistory(file);
+        assertEquals(2, reloaded.getActiveVersion());
+        assertEquals(3, reloaded.getLatestVersion());
+        for (int id = 1; id <= 3; id++) {
+            assertEquals(history.getSlots(id), reloaded.getSlots(id));
+        }
+    }
+
+    private static List<ClassTimeSlot> sortedByDay(List<ClassTimeSlot> slots) {
+        List<ClassTimeSlot> copy = new ArrayList<>(slots);
+        copy.sort((a, b) -> a.getDay() != b.getDay() ? a.getDay().compareTo(b.getDay())
+                : a.getStartTime().compareTo(b.getStartTime()));
+        return copy;
+    }
+}